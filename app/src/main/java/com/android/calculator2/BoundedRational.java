@@ -18,7 +18,9 @@ package com.android.calculator2;
 
 import com.hp.creals.CR;
 
+import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.math.MathContext;
 import java.util.Objects;
 import java.util.Random;
 
@@ -131,9 +133,9 @@ public class BoundedRational {
      */
     public String toNiceString() {
         final BoundedRational nicer = reduce().positiveDen();
-        String result = nicer.mNum.toString();
+        String result = CR.bigIntegerToString(nicer.mNum, 10);
         if (!nicer.mDen.equals(BigInteger.ONE)) {
-            result += "/" + nicer.mDen;
+            result += "/" + CR.bigIntegerToString(nicer.mDen, 10);
         }
         return result;
     }
@@ -151,7 +153,8 @@ public class BoundedRational {
      * @param n result precision, >= 0
      */
     public String toStringTruncated(int n) {
-        String digits = mNum.abs().multiply(BigInteger.TEN.pow(n)).divide(mDen.abs()).toString();
+        String digits = CR.bigIntegerToString(
+                mNum.abs().multiply(BigInteger.TEN.pow(n)).divide(mDen.abs()), 10);
         int len = digits.length();
         if (len < n + 1) {
             digits = StringUtils.repeat('0', n + 1 - len) + digits;
@@ -209,10 +212,33 @@ public class BoundedRational {
         return Double.longBitsToDouble(bits);
     }
 
+    /**
+     * Return a BigDecimal approximation, rounded as specified by mc.
+     */
+    public BigDecimal bigDecimalValue(MathContext mc) {
+        return new BigDecimal(mNum).divide(new BigDecimal(mDen), mc);
+    }
+
     public CR crValue() {
         return CR.valueOf(mNum).divide(CR.valueOf(mDen));
     }
 
+    /**
+     * Return a constructive real equal to e^this.
+     * Much faster to evaluate to high precision than crValue().exp() for small fractions.
+     */
+    public CR crExpValue() {
+        return CR.rationalExp(mNum, mDen);
+    }
+
+    /**
+     * Return a constructive real equal to atan(this).
+     * Much faster to evaluate to high precision than crValue().atan() for small fractions.
+     */
+    public CR crAtanValue() {
+        return CR.rationalAtan(mNum, mDen);
+    }
+
     public int intValue() {
         BoundedRational reduced = reduce();
         if (!reduced.mDen.equals(BigInteger.ONE)) {
@@ -417,6 +443,58 @@ public class BoundedRational {
         return new BoundedRational(num_sqrt, den_sqrt);
     }
 
+    /**
+     * Return the exact nth root of r, or null if it's not easily representable as a rational.
+     * Negative arguments are accepted for odd n.
+     */
+    public static BoundedRational nthRoot(BoundedRational r, int n) {
+        // Return non-null if numerator and denominator are small perfect nth powers.
+        if (r == null) {
+            return null;
+        }
+        r = r.positiveDen().reduce();
+        if (r.mNum.signum() < 0 && (n & 1) == 0) {
+            throw new ArithmeticException("nthRoot(negative)");
+        }
+        final BigInteger num_root = exactRoot(r.mNum.abs(), n);
+        if (num_root == null) {
+            return null;
+        }
+        final BigInteger den_root = exactRoot(r.mDen, n);
+        if (den_root == null) {
+            return null;
+        }
+        return new BoundedRational(r.mNum.signum() < 0 ? num_root.negate() : num_root, den_root);
+    }
+
+    /**
+     * Return the nth root of a nonnegative BigInteger x, or null if x is not a small perfect
+     * nth power.
+     */
+    private static BigInteger exactRoot(BigInteger x, int n) {
+        if (x.bitLength() > 50 * n) {
+            return null;  // Root would have more than 50 bits.
+        }
+        // Estimate the root from the leading bits of x, using doubles. The estimate may be off
+        // by a few units, so correct it with a Newton step, which leaves an error well below
+        // one, and then check the neighbors of the truncated result.
+        final int shift = Math.max(x.bitLength() - 60, 0) / n * n;
+        BigInteger root = BigInteger.valueOf(Math.round(Math.scalb(
+                Math.pow(x.shiftRight(shift).doubleValue(), 1.0 / n), shift / n)));
+        if (root.signum() > 0) {
+            final BigInteger rootPow = root.pow(n - 1);
+            root = root.subtract(rootPow.multiply(root).subtract(x)
+                    .divide(rootPow.multiply(BigInteger.valueOf(n))));
+        }
+        for (int i = -1; i <= 1; ++i) {
+            final BigInteger candidate = root.add(BigInteger.valueOf(i));
+            if (candidate.signum() >= 0 && candidate.pow(n).equals(x)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
     public final static BoundedRational ZERO = new BoundedRational(0);
     public final static BoundedRational HALF = new BoundedRational(1,2);
     public final static BoundedRational MINUS_HALF = new BoundedRational(-1,2);
@@ -453,9 +531,7 @@ public class BoundedRational {
             return ONE;
         }
         BoundedRational tmp = rawPow(exp.shiftRight(1));
-        if (Thread.interrupted()) {
-            throw new CR.AbortedException();
-        }
+        CR.checkAborted();
         BoundedRational result = rawMultiply(tmp, tmp);
         if (result == null || result.tooBig()) {
             return null;
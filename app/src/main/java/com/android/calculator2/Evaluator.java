@@ -35,6 +35,7 @@ import java.io.ByteArrayInputStream;
 import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.DataOutput;
+import java.io.File;
 import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -223,6 +224,9 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
     private static final String KEY_PREF_MEMORY_INDEX = "memory_index";
     private static final String KEY_PREF_SAVED_NAME = "saved_name";
 
+    // File in private storage holding the most precise value of pi computed so far.
+    private static final String PI_CACHE_FILE_NAME = "pi_cache";
+
     // The minimum number of extra digits we always try to compute to improve the chance of
     // producing a correctly-rounded-towards-zero result.  The extra digits can be displayed to
     // avoid generating placeholder digits, but should only be displayed briefly while computing.
@@ -304,7 +308,7 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
         // We arrange that only one evaluator is active at a time, in part by maintaining
         // two separate ExprInfo structure for the main and history view, so that they can
         // arrange for independent evaluators.
-        public AsyncTask mEvaluator;
+        public EvaluationTask mEvaluator;
 
         // The remaining fields are valid only if an evaluation completed successfully.
         // mVal always points to an AtomicReference, but that may be null.
@@ -337,6 +341,24 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
 
     private final Handler mTimeoutHandler;  // Used to schedule evaluation timeouts.
 
+    // The latest main expression result, whose cached approximations we keep regardless of the
+    // CR cache budget, since scrolling it is likely.  Null if none.  Touched only by the UI thread.
+    private UnifiedReal mProtectedVal;
+
+    /**
+     * Protect the cached approximations of val instead of those of the previous main result.
+     */
+    private void protectMainResult(UnifiedReal val) {
+        if (val == mProtectedVal) {
+            return;
+        }
+        if (mProtectedVal != null) {
+            mProtectedVal.unprotectCache();
+        }
+        val.protectCache();
+        mProtectedVal = val;
+    }
+
     private void setMainExpr(ExprInfo expr) {
         mMainExpr = expr;
         mExprs.put(MAIN_INDEX, expr);
@@ -347,6 +369,10 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
         setMainExpr(new ExprInfo(new CalculatorExpr(), false));
         mSavedName = "none";
         mTimeoutHandler = new Handler();
+        CR.setPiCacheFile(new File(context.getFilesDir(), PI_CACHE_FILE_NAME));
+        if (Runtime.getRuntime().availableProcessors() > 1) {
+            CR.parallel_eval_threshold = (int) (PARALLEL_EVAL_MS * WORK_PER_MS);
+        }
 
         mExprDB = new ExpressionDB(context);
         mSharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
@@ -405,7 +431,8 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
      */
     private static class InitialResult {
         public final int errorResourceId;    // Error string or INVALID_RES_ID.
-        public final UnifiedReal val;        // Constructive real value.
+        public final UnifiedReal val;        // Constructive real value, or null if the result
+                                             // was computed from an Interval.
         public final String newResultString;       // Null iff it can't be computed.
         public final int newResultStringOffset;
         public final int initDisplayOffset;
@@ -479,6 +506,26 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
      */
     private static final int QUICK_MAX_RESULT_BITS = 150000;
 
+    /**
+     * Rough number of CR.estimateCost() work units we expect to perform per millisecond on a
+     * slow device.  Used to predict how long an evaluation will take.  The estimates themselves
+     * may be off by a factor of a few, so we use them only to decide how much work to do, never
+     * to refuse an evaluation.
+     */
+    private static final long WORK_PER_MS = 50000;
+
+    /**
+     * When reevaluating, we precompute additional digits as long as the work for them is
+     * predicted to stay below this many milliseconds.
+     */
+    private static final long CHEAP_REEVAL_MS = 20;
+
+    /**
+     * On multi-core devices, independent operands predicted to take at least this many
+     * milliseconds each are evaluated concurrently.
+     */
+    private static final long PARALLEL_EVAL_MS = 5;
+
     private void displayTimeoutMessage(boolean longTimeout) {
         if (mCallback != null) {
             mCallback.showMessageDialog(R.string.dialog_timeout, R.string.timeout,
@@ -490,17 +537,52 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
         mMainExpr.mLongTimeout = true;
     }
 
+    /**
+     * An AsyncTask that evaluates constructive reals with its own CR.CancellationToken
+     * installed.  This allows a single evaluation to be stopped promptly, without interrupting
+     * the thread that runs it, and thus without affecting other evaluations.
+     */
+    abstract static class EvaluationTask<Params, Result> extends AsyncTask<Params, Void, Result> {
+        protected final CR.CancellationToken mToken = new CR.CancellationToken();
+
+        /**
+         * Stop the evaluation.  OnCancelled() rather than onPostExecute() will be called.
+         * @return false if the task could not be cancelled, typically because it already
+         *         completed
+         */
+        public boolean cancelEvaluation() {
+            mToken.cancel();
+            return cancel(false);
+        }
+
+        @Override
+        protected final Result doInBackground(Params... params) {
+            final CR.CancellationToken previous = CR.setCancellationToken(mToken);
+            try {
+                return evaluate(params);
+            } finally {
+                CR.setCancellationToken(previous);
+            }
+        }
+
+        /**
+         * The actual background computation, run with mToken installed.
+         */
+        protected abstract Result evaluate(Params... params);
+    }
+
     /**
      * Compute initial cache contents and result when we're good and ready.
      * We leave the expression display up, with scrolling disabled, until this computation
      * completes.  Can result in an error display if something goes wrong.  By default we set a
      * timeout to catch runaway computations.
      */
-    class AsyncEvaluator extends AsyncTask<Void, Void, InitialResult> {
+    class AsyncEvaluator extends EvaluationTask<Void, InitialResult> {
         private boolean mDm;  // degrees
         public boolean mRequired; // Result was requested by user.
         private boolean mQuiet;  // Suppress cancellation message.
         private Runnable mTimeoutRunnable = null;
+        private long mTimeout;  // Set by onPreExecute(), in milliseconds.
         private EvaluationListener mListener;  // Completion callback.
         private CharMetricsInfo mCharMetricsInfo;  // Where to get result size information.
         private long mIndex;  //  Expression index.
@@ -523,7 +605,7 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
         private void handleTimeout() {
             // Runs in UI thread.
             boolean running = (getStatus() != AsyncTask.Status.FINISHED);
-            if (running && cancel(true)) {
+            if (running && cancelEvaluation()) {
                 mExprs.get(mIndex).mEvaluator = null;
                 if (mRequired && mIndex == MAIN_INDEX) {
                     // Replace mExpr with clone to avoid races if task still runs for a while.
@@ -538,16 +620,24 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
             mQuiet = true;
         }
 
-        @Override
-        protected void onPreExecute() {
-            long timeout = mRequired ? getTimeout(mExprInfo.mLongTimeout) : QUICK_TIMEOUT;
+        /**
+         * The timeout for this evaluation, in milliseconds.
+         */
+        private long timeout() {
             if (mIndex != MAIN_INDEX) {
                 // We evaluated the expression before with the current timeout, so this shouldn't
                 // ever time out. We evaluate it with a ridiculously long timeout to avoid running
                 // down the battery if something does go wrong. But we only log such timeouts, and
                 // invoke the listener with onCancelled.
-                timeout = NON_MAIN_TIMEOUT;
+                return NON_MAIN_TIMEOUT;
             }
+            return mRequired ? getTimeout(mExprInfo.mLongTimeout) : QUICK_TIMEOUT;
+        }
+
+        @Override
+        protected void onPreExecute() {
+            final long timeout = timeout();
+            mTimeout = timeout;
             mTimeoutRunnable = new Runnable() {
                 @Override
                 public void run() {
@@ -556,6 +646,45 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
             };
             mTimeoutHandler.removeCallbacks(mTimeoutRunnable);
             mTimeoutHandler.postDelayed(mTimeoutRunnable, timeout);
+            // Also stop the computation itself on time, even if the UI thread is slow to run
+            // mTimeoutRunnable.
+            mToken.setTimeout(timeout);
+        }
+
+        /**
+         * Check the predicted cost of the initial evaluation of res against the timeout.
+         * If it would fit into the long timeout, but not into the short one, use the long one,
+         * rather than timing out and then asking the user to remove the timeout.
+         * The prediction is rough, so we only ever use it to allow more time.  Whether the
+         * evaluation finishes in time is still up to the timeout itself.
+         * Runs in the background thread.
+         */
+        private void checkPredictedCost(UnifiedReal res) {
+            final long predictedMs = res.estimateCost(INIT_PREC) / WORK_PER_MS;
+            if (predictedMs <= mTimeout) {
+                return;
+            }
+            final long longTimeout = getTimeout(true);
+            if (mRequired && mIndex == MAIN_INDEX && mTimeout < longTimeout
+                    && predictedMs <= longTimeout) {
+                extendTimeout(longTimeout);
+            }
+        }
+
+        /**
+         * Allow the evaluation to run for another timeout milliseconds.
+         */
+        private void extendTimeout(final long timeout) {
+            mToken.setTimeout(timeout);
+            mTimeoutHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (getStatus() != AsyncTask.Status.FINISHED) {
+                        mTimeoutHandler.removeCallbacks(mTimeoutRunnable);
+                        mTimeoutHandler.postDelayed(mTimeoutRunnable, timeout);
+                    }
+                }
+            });
         }
 
         /**
@@ -567,11 +696,59 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
             return res.approxWholeNumberBitsGreaterThan(maxBits);
         }
 
+        /**
+         * Try to compute the initial result from an Interval containing it, without building or
+         * evaluating a UnifiedReal.  This usually suffices for instant results, which only need
+         * to fill the display.  Like the normal path, we compute EXTRA_DIGITS beyond the
+         * displayed digits.  Any further digits are computed by an AsyncReevaluator, which first
+         * builds the UnifiedReal.
+         * Return null if the interval is too wide to determine those digits, or if the result is
+         * known to be rational.  In the latter case we need to know exactly where its digits end,
+         * and can find out cheaply.
+         */
+        private InitialResult quickInitialResult() {
+            final Interval enclosure = mExprInfo.mExpr.evalEnclosure(mDm, Evaluator.this);
+            if (enclosure == null || enclosure.exactValue() != null) {
+                return null;
+            }
+            final int msdOffset = enclosure.msdOffset();
+            if (msdOffset == Integer.MAX_VALUE) {
+                return null;
+            }
+            int precOffset = Math.max(msdOffset, 1);
+            String initResult = enclosure.toStringTruncated(precOffset);
+            if (initResult == null) {
+                return null;
+            }
+            final int msd = getMsdIndexOf(initResult);
+            if (msd == INVALID_MSD) {
+                return null;
+            }
+            // The result is not known to be rational, so it has no known last digit.
+            final int initDisplayOffset = getPreferredPrec(initResult, msd, Integer.MAX_VALUE,
+                    mCharMetricsInfo);
+            final int newPrecOffset = initDisplayOffset + EXTRA_DIGITS;
+            if (newPrecOffset > precOffset) {
+                precOffset = newPrecOffset;
+                initResult = enclosure.toStringTruncated(precOffset);
+                if (initResult == null) {
+                    return null;
+                }
+            }
+            return new InitialResult(null, initResult, precOffset, initDisplayOffset);
+        }
+
         @Override
-        protected InitialResult doInBackground(Void... nothing) {
+        protected InitialResult evaluate(Void... nothing) {
             try {
                 // mExpr does not change while we are evaluating; thus it's OK to read here.
                 UnifiedReal res = mExprInfo.mVal.get();
+                if (res == null && !mRequired && mIndex == MAIN_INDEX) {
+                    final InitialResult quickResult = quickInitialResult();
+                    if (quickResult != null) {
+                        return quickResult;
+                    }
+                }
                 if (res == null) {
                     try {
                         res = mExprInfo.mExpr.eval(mDm, Evaluator.this);
@@ -590,6 +767,7 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
                     // Avoid starting a long uninterruptible decimal conversion.
                     return new InitialResult(R.string.timeout);
                 }
+                checkPredictedCost(res);
                 int precOffset = INIT_PREC;
                 String initResult = res.toStringTruncated(precOffset);
                 int msd = getMsdIndexOf(initResult);
@@ -630,6 +808,9 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
                 // Extremely unlikely unless we're actually dividing by zero or the like.
                 return new InitialResult(R.string.error_overflow);
             } catch(CR.AbortedException e) {
+                if (mToken.hasTimedOut() && !mToken.isCancelled()) {
+                    return new InitialResult(R.string.timeout);
+                }
                 return new InitialResult(R.string.error_aborted);
             }
         }
@@ -653,7 +834,11 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
                 }
                 return;
             }
-            // mExprInfo.mVal was already set asynchronously by child thread.
+            // mExprInfo.mVal was already set asynchronously by child thread, unless the result
+            // was computed from an Interval.
+            if (mIndex == MAIN_INDEX && result.val != null) {
+                protectMainResult(result.val);
+            }
             mExprInfo.mResultString = result.newResultString;
             mExprInfo.mResultStringOffset = result.newResultStringOffset;
             final int dotIndex = mExprInfo.mResultString.indexOf('.');
@@ -742,7 +927,7 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
      * This assumes that initial evaluation of the expression has been successfully
      * completed.
      */
-    private class AsyncReevaluator extends AsyncTask<Integer, Void, ReevalResult> {
+    private class AsyncReevaluator extends EvaluationTask<Integer, ReevalResult> {
         private long mIndex;  // Index of expression to evaluate.
         private EvaluationListener mListener;
         private ExprInfo mExprInfo;
@@ -753,12 +938,35 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
             mExprInfo = mExprs.get(mIndex);
         }
 
+        /**
+         * Return the precision offset to which we should actually evaluate val, given that
+         * precOffset was requested.  If it is predicted to be cheap, we precompute more digits,
+         * up to twice precOffset, to reduce the number of reevaluations while scrolling.
+         */
+        private int adjustPrecOffset(UnifiedReal val, int precOffset) {
+            int result = precOffset;
+            for (int extra = PRECOMPUTE_DIGITS; extra <= precOffset; extra *= 2) {
+                if (val.estimateCost(precOffset + extra) > CHEAP_REEVAL_MS * WORK_PER_MS) {
+                    break;
+                }
+                result = precOffset + extra;
+            }
+            return result;
+        }
+
         @Override
-        protected ReevalResult doInBackground(Integer... prec) {
+        protected ReevalResult evaluate(Integer... prec) {
             try {
-                final int precOffset = prec[0].intValue();
-                return new ReevalResult(mExprInfo.mVal.get().toStringTruncated(precOffset),
-                        precOffset);
+                UnifiedReal val = mExprInfo.mVal.get();
+                if (val == null) {
+                    // The initial result was computed from an Interval.  Build the value now.
+                    val = putResultIfAbsent(mIndex,
+                            mExprInfo.mExpr.eval(mExprInfo.mDegreeMode, Evaluator.this));
+                }
+                final int precOffset = adjustPrecOffset(val, prec[0].intValue());
+                return new ReevalResult(val.toStringTruncated(precOffset), precOffset);
+            } catch(CalculatorExpr.SyntaxException e) {
+                return null;
             } catch(ArithmeticException e) {
                 return null;
             } catch(CR.PrecisionOverflowException e) {
@@ -804,7 +1012,7 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
                 || ei.mResultStringOffsetReq >= precOffset) return;
         if (ei.mEvaluator != null) {
             // Ensure we only have one evaluation running at a time.
-            ei.mEvaluator.cancel(true);
+            ei.mEvaluator.cancelEvaluation();
             ei.mEvaluator = null;
         }
         AsyncReevaluator reEval = new AsyncReevaluator(index, listener);
@@ -818,7 +1026,8 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
 
     /**
      * Return the rightmost nonzero digit position, if any.
-     * @param val UnifiedReal value of result.
+     * @param val UnifiedReal value of result, or null if the result was computed from an
+     *            Interval, and is thus not known to be rational.
      * @param cache Current cached decimal string representation of result.
      * @param decIndex Index of decimal point in cache.
      * @result Position of rightmost nonzero digit relative to decimal point.
@@ -826,6 +1035,7 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
      *         or we cannot determine it.
      */
     static int getLsdOffset(UnifiedReal val, String cache, int decIndex) {
+        if (val == null) return Integer.MAX_VALUE;
         if (val.definitelyZero()) return Integer.MIN_VALUE;
         int result = val.digitsRequired();
         if (result == 0) {
@@ -1026,7 +1236,8 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
             }
             return ei.mMsdIndex;
         }
-        if (ei.mVal.get().definitelyZero()) {
+        final UnifiedReal val = ei.mVal.get();
+        if (val != null && val.definitelyZero()) {
             return INVALID_MSD;  // None exists
         }
         int result = INVALID_MSD;
@@ -1222,7 +1433,9 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
             throw new AssertionError("requireResult called too early");
         }
         ExprInfo ei = ensureExprIsCached(index);
-        if (ei.mResultString == null || (index == MAIN_INDEX && mChangedValue)) {
+        // A result computed from an Interval is only good for display; recompute it.
+        if (ei.mResultString == null || ei.mVal.get() == null
+                || (index == MAIN_INDEX && mChangedValue)) {
             if (index == HISTORY_MAIN_INDEX) {
                 // We don't want to compute a result for HISTORY_MAIN_INDEX that was
                 // not already computed for the main expression. Pretend we timed out.
@@ -1273,13 +1486,13 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
             }
             // Reevaluation in progress.
             if (expr.mVal.get() != null) {
-                expr.mEvaluator.cancel(true);
+                expr.mEvaluator.cancelEvaluation();
                 expr.mResultStringOffsetReq = expr.mResultStringOffset;
                 // Backgound computation touches only constructive reals.
                 // OK not to wait.
                 expr.mEvaluator = null;
             } else {
-                expr.mEvaluator.cancel(true);
+                expr.mEvaluator.cancelEvaluation();
                 if (expr == mMainExpr) {
                     // The expression is modifiable, and the AsyncTask is reading it.
                     // There seems to be no good way to wait for cancellation.
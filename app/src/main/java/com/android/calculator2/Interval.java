@@ -0,0 +1,419 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calculator2;
+
+import com.hp.creals.CR;
+import com.hp.creals.UnaryCRFunction;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+/**
+ * Closed intervals with BigDecimal endpoints of fixed precision, known to contain the value of
+ * an expression.  These allow us to compute the initially displayed digits of a result in a
+ * single pass over the expression, without building or evaluating a UnifiedReal, when the
+ * interval is narrow enough.
+ *
+ * Like BoundedRational, we represent "unknown" by null: Operations return null if we cannot
+ * produce an interval, and propagate null arguments.  They never throw ArithmeticException;
+ * we leave reporting errors to the UnifiedReal evaluation.
+ * Endpoints are always rounded outward to DIGITS significant digits.  Library functions are
+ * evaluated at the endpoints of the argument interval, which must be mapped monotonically, by
+ * approximating com.hp.creals.UnaryCRFunction values at a fixed precision.  No CR expression is
+ * built for the expression as a whole.
+ * We also track the exact value, if it is known to be rational.
+ */
+public class Interval {
+    /**
+     * The number of significant decimal digits kept in each endpoint.  Enough for the initial
+     * display and the EXTRA_DIGITS Evaluator computes beyond it, if the result is not too close
+     * to zero.
+     */
+    private static final int DIGITS = 64;
+    private static final MathContext DOWN = new MathContext(DIGITS, RoundingMode.FLOOR);
+    private static final MathContext UP = new MathContext(DIGITS, RoundingMode.CEILING);
+
+    /**
+     * Library function values are computed to within 2^-BITS, relative to their magnitude for
+     * sqrt and exp, absolute otherwise.  Arguments are rounded outward to a multiple of 2^-BITS.
+     */
+    private static final int BITS = 224;
+    private static final BigDecimal TWO_TO_BITS = new BigDecimal(BigInteger.ONE.shiftLeft(BITS));
+
+    /**
+     * We don't try to compute exp() for arguments larger than this in absolute value.
+     * Such results are not displayed without an exponent anyway.
+     */
+    private static final int MAX_EXP_ARG = 5000;
+
+    private final BigDecimal mLo;
+    private final BigDecimal mHi;
+    private final BoundedRational mExact;  // The enclosed value, if known to be rational.
+
+    private Interval(BigDecimal lo, BigDecimal hi, BoundedRational exact) {
+        mLo = lo;
+        mHi = hi;
+        mExact = exact;
+    }
+
+    /**
+     * Return [lo, hi], with endpoints rounded outward, or null if the arguments are null.
+     */
+    private static Interval make(BigDecimal lo, BigDecimal hi) {
+        if (lo == null || hi == null) {
+            return null;
+        }
+        return new Interval(lo.round(DOWN), hi.round(UP), null);
+    }
+
+    public static Interval valueOf(BoundedRational r) {
+        if (r == null) {
+            return null;
+        }
+        return new Interval(r.bigDecimalValue(DOWN), r.bigDecimalValue(UP), r);
+    }
+
+    /**
+     * Interval for a UnifiedReal.  If it is not known to be rational, it should already have
+     * been evaluated, e.g. as an earlier result, so that the needed approximation is normally
+     * cached.
+     */
+    public static Interval valueOf(UnifiedReal u) {
+        final BoundedRational r = u.boundedRationalValue();
+        if (r != null) {
+            return valueOf(r);
+        }
+        final BigInteger appr = u.crValue().get_appr(-BITS);
+        return make(scale(appr.subtract(BigInteger.ONE), -BITS),
+                scale(appr.add(BigInteger.ONE), -BITS));
+    }
+
+    /**
+     * Interval for an approximation of a constant.
+     */
+    private static Interval valueOf(CR x) {
+        final BigInteger appr = x.get_appr(-BITS);
+        return make(scale(appr.subtract(BigInteger.ONE), -BITS),
+                scale(appr.add(BigInteger.ONE), -BITS));
+    }
+
+    public static final Interval PI = valueOf(CR.PI);
+    public static final Interval E = valueOf(CR.ONE.exp());
+    public static final Interval ONE = valueOf(BoundedRational.ONE);
+    public static final Interval ONE_HUNDREDTH = valueOf(new BoundedRational(1, 100));
+    public static final Interval RADIANS_PER_DEGREE =
+            divide(PI, valueOf(new BoundedRational(180)));
+    private static final Interval LN10 = ln(valueOf(BoundedRational.TEN));
+
+    /**
+     * The exact value, if it is known to be rational, or null.
+     */
+    public BoundedRational exactValue() {
+        return mExact;
+    }
+
+    /**
+     * Return n * 2^e, exactly.
+     */
+    private static BigDecimal scale(BigInteger n, int e) {
+        if (e >= 0) {
+            return new BigDecimal(n.shiftLeft(e));
+        }
+        // 2^e = 5^-e / 10^-e.
+        return new BigDecimal(n.multiply(BigInteger.valueOf(5).pow(-e)), -e);
+    }
+
+    /**
+     * A CR equal to x rounded to a multiple of 2^-BITS, in the indicated direction.
+     */
+    private static CR toCR(BigDecimal x, RoundingMode mode) {
+        return CR.valueOf(x.multiply(TWO_TO_BITS).setScale(0, mode).toBigIntegerExact())
+                .shiftRight(BITS);
+    }
+
+    /**
+     * A rough base 2 logarithm of abs(x), for nonzero x.  Off by at most 4.
+     */
+    private static int log2(BigDecimal x) {
+        final BigInteger n = x.unscaledValue();
+        return n.bitLength() - (int) Math.ceil(x.scale() * Math.log(10.0) / Math.log(2.0));
+    }
+
+    /**
+     * Apply f to the endpoints of x, assuming it is monotonic on x.
+     * @param increasing f is increasing on x, rather than decreasing
+     * @param prec precision passed to get_appr for the function values
+     */
+    private static Interval monotonic(UnaryCRFunction f, Interval x, boolean increasing,
+            int prec) {
+        final CR lo = toCR(x.mLo, RoundingMode.FLOOR);
+        final CR hi = toCR(x.mHi, RoundingMode.CEILING);
+        final BigInteger[] apprs = f.executeAll(new CR[] { lo, hi }, prec);
+        final BigInteger lower = (increasing ? apprs[0] : apprs[1]).subtract(BigInteger.ONE);
+        final BigInteger upper = (increasing ? apprs[1] : apprs[0]).add(BigInteger.ONE);
+        return make(scale(lower, prec), scale(upper, prec));
+    }
+
+    private boolean containsZero() {
+        return mLo.signum() <= 0 && mHi.signum() >= 0;
+    }
+
+    public static Interval add(Interval x, Interval y) {
+        if (x == null || y == null) {
+            return null;
+        }
+        final BoundedRational exact = BoundedRational.add(x.mExact, y.mExact);
+        return new Interval(x.mLo.add(y.mLo, DOWN), x.mHi.add(y.mHi, UP), exact);
+    }
+
+    public static Interval negate(Interval x) {
+        if (x == null) {
+            return null;
+        }
+        return new Interval(x.mHi.negate(), x.mLo.negate(), BoundedRational.negate(x.mExact));
+    }
+
+    public static Interval subtract(Interval x, Interval y) {
+        return add(x, negate(y));
+    }
+
+    public static Interval multiply(Interval x, Interval y) {
+        if (x == null || y == null) {
+            return null;
+        }
+        final BigDecimal[] products = {
+                x.mLo.multiply(y.mLo), x.mLo.multiply(y.mHi),
+                x.mHi.multiply(y.mLo), x.mHi.multiply(y.mHi) };
+        BigDecimal lo = products[0];
+        BigDecimal hi = products[0];
+        for (BigDecimal p : products) {
+            lo = lo.min(p);
+            hi = hi.max(p);
+        }
+        final Interval result = make(lo, hi);
+        return new Interval(result.mLo, result.mHi,
+                BoundedRational.multiply(x.mExact, y.mExact));
+    }
+
+    public static Interval inverse(Interval x) {
+        if (x == null || x.containsZero()) {
+            return null;
+        }
+        final BoundedRational exact =
+                x.mExact == null ? null : BoundedRational.inverse(x.mExact);
+        return new Interval(BigDecimal.ONE.divide(x.mHi, DOWN), BigDecimal.ONE.divide(x.mLo, UP),
+                exact);
+    }
+
+    public static Interval divide(Interval x, Interval y) {
+        return multiply(x, inverse(y));
+    }
+
+    public static Interval sqrt(Interval x) {
+        if (x == null || x.mHi.signum() < 0) {
+            return null;
+        }
+        final BoundedRational exact = x.mExact == null || x.mExact.signum() < 0 ? null
+                : BoundedRational.sqrt(x.mExact);
+        if (exact != null) {
+            return valueOf(exact);
+        }
+        if (x.mHi.signum() == 0) {
+            return make(BigDecimal.ZERO, BigDecimal.ZERO);
+        }
+        final Interval nonNegative =
+                x.mLo.signum() < 0 ? new Interval(BigDecimal.ZERO, x.mHi, null) : x;
+        return monotonic(UnaryCRFunction.sqrtFunction, nonNegative, true,
+                log2(x.mHi) / 2 - BITS);
+    }
+
+    public static Interval exp(Interval x) {
+        if (x == null || x.mHi.compareTo(BigDecimal.valueOf(MAX_EXP_ARG)) > 0
+                || x.mLo.compareTo(BigDecimal.valueOf(-MAX_EXP_ARG)) < 0) {
+            return null;
+        }
+        final int resultLog2 = (int) Math.floor(x.mLo.doubleValue() / Math.log(2.0));
+        return monotonic(UnaryCRFunction.expFunction, x, true, resultLog2 - BITS);
+    }
+
+    public static Interval ln(Interval x) {
+        if (x == null || x.mLo.signum() <= 0) {
+            return null;
+        }
+        return monotonic(UnaryCRFunction.lnFunction, x, true, -BITS);
+    }
+
+    public static Interval log10(Interval x) {
+        return divide(ln(x), LN10);
+    }
+
+    /**
+     * The sign of f' on x, given f' evaluated at the midpoint of x, or 0 if we can't tell.
+     * Assumes that f' changes by at most the change in its argument, as for sin and cos.
+     * We allow for errors in the double approximation of the midpoint and in the library
+     * function.
+     */
+    private static int derivativeSign(Interval x, double derivativeAtMid, double mid) {
+        final double width = x.mHi.subtract(x.mLo).doubleValue();
+        return Math.abs(derivativeAtMid) > width + Math.ulp(mid) + 1.0e-14
+                ? (int) Math.signum(derivativeAtMid) : 0;
+    }
+
+    private static final Interval MINUS_ONE_TO_ONE = make(BigDecimal.ONE.negate(), BigDecimal.ONE);
+
+    public static Interval sin(Interval x) {
+        if (x == null) {
+            return null;
+        }
+        final double mid = x.mLo.add(x.mHi).doubleValue() / 2.0;
+        final int sign = derivativeSign(x, Math.cos(mid), mid);
+        if (sign == 0) {
+            return MINUS_ONE_TO_ONE;
+        }
+        return monotonic(UnaryCRFunction.sinFunction, x, sign > 0, -BITS);
+    }
+
+    public static Interval cos(Interval x) {
+        if (x == null) {
+            return null;
+        }
+        final double mid = x.mLo.add(x.mHi).doubleValue() / 2.0;
+        final int sign = derivativeSign(x, -Math.sin(mid), mid);
+        if (sign == 0) {
+            return MINUS_ONE_TO_ONE;
+        }
+        return monotonic(UnaryCRFunction.cosFunction, x, sign > 0, -BITS);
+    }
+
+    public static Interval tan(Interval x) {
+        return divide(sin(x), cos(x));
+    }
+
+    private static boolean inAsinDomain(Interval x) {
+        return x.mLo.compareTo(BigDecimal.ONE.negate()) >= 0
+                && x.mHi.compareTo(BigDecimal.ONE) <= 0;
+    }
+
+    public static Interval asin(Interval x) {
+        if (x == null || !inAsinDomain(x)) {
+            return null;
+        }
+        return monotonic(UnaryCRFunction.asinFunction, x, true, -BITS);
+    }
+
+    public static Interval acos(Interval x) {
+        if (x == null || !inAsinDomain(x)) {
+            return null;
+        }
+        return monotonic(UnaryCRFunction.acosFunction, x, false, -BITS);
+    }
+
+    public static Interval atan(Interval x) {
+        if (x == null) {
+            return null;
+        }
+        return monotonic(UnaryCRFunction.atanFunction, x, true, -BITS);
+    }
+
+    private static final BigInteger MAX_INT_EXP = BigInteger.valueOf(64);
+
+    /**
+     * Raise x to an exact integer power.  Only small exponents are handled, by repeated
+     * multiplication.
+     */
+    public static Interval pow(Interval x, BigInteger n) {
+        if (x == null || n.abs().compareTo(MAX_INT_EXP) > 0) {
+            return null;
+        }
+        final int e = n.abs().intValue();
+        Interval result = ONE;
+        for (int i = 0; i < e; ++i) {
+            result = multiply(result, x);
+        }
+        return n.signum() < 0 ? inverse(result) : result;
+    }
+
+    /**
+     * Compute x^y for positive x.
+     */
+    public static Interval pow(Interval x, Interval y) {
+        if (x == null || x.mLo.signum() <= 0) {
+            return null;
+        }
+        return exp(multiply(y, ln(x)));
+    }
+
+    private static final BigInteger MAX_FACT_ARG = BigInteger.valueOf(170);
+
+    /**
+     * Factorial of x, if x is known to be a small nonnegative integer.
+     */
+    public static Interval fact(Interval x) {
+        final BigInteger n = x == null ? null : BoundedRational.asBigInteger(x.mExact);
+        if (n == null || n.signum() < 0 || n.compareTo(MAX_FACT_ARG) > 0) {
+            return null;
+        }
+        BigInteger result = BigInteger.ONE;
+        for (int i = 2; i <= n.intValue(); ++i) {
+            result = result.multiply(BigInteger.valueOf(i));
+        }
+        return valueOf(new BoundedRational(result));
+    }
+
+    /**
+     * Return a decimal representation of the enclosed value, truncated towards zero, with n
+     * digits to the right of the decimal point, in the format produced by
+     * UnifiedReal.toStringTruncated().
+     * Return null if the interval is too wide to determine those digits, or if they are all zero.
+     * The latter ensures that the sign is known.
+     * @param n result precision, >= 0
+     */
+    public String toStringTruncated(int n) {
+        if (containsZero()) {
+            return null;
+        }
+        final BigDecimal lo = mLo.setScale(n, RoundingMode.DOWN);
+        final BigDecimal hi = mHi.setScale(n, RoundingMode.DOWN);
+        if (lo.compareTo(hi) != 0 || lo.signum() == 0) {
+            return null;
+        }
+        final String result = lo.toPlainString();
+        return n == 0 ? result + "." : result;
+    }
+
+    /**
+     * Return a precision offset, relative to the decimal point with 1 denoting the tenths
+     * position, at which a truncated representation of any value in the interval includes at
+     * least two digits, starting with a nonzero one.
+     * Return Integer.MAX_VALUE if the interval contains zero.
+     */
+    public int msdOffset() {
+        if (containsZero()) {
+            return Integer.MAX_VALUE;
+        }
+        final BigDecimal minAbs = mLo.abs().min(mHi.abs());
+        // The most significant digit of minAbs is in the 10^(precision - scale - 1) position.
+        return 2 - minAbs.precision() + minAbs.scale();
+    }
+
+    @Override
+    public String toString() {
+        return "[" + mLo + ", " + mHi + "]";
+    }
+}
@@ -17,8 +17,10 @@
 package com.android.calculator2;
 
 import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import com.hp.creals.CR;
-import com.hp.creals.UnaryCRFunction;
 
 /**
  * Computable real numbers, represented so that we can get exact decidable comparisons
@@ -105,18 +107,24 @@ public class UnifiedReal {
     private final static BigInteger BIG_24 = BigInteger.valueOf(24);
     private final static int DEFAULT_COMPARE_TOLERANCE = -1000;
 
-    // Well-known CR constants we try to use in the mCrFactor position:
+    // Well-known CR constants we try to use in the mCrFactor position.  Their cached
+    // approximations are exempt from CR.appr_cache_budget.
     private final static CR CR_ONE = CR.ONE;
     private final static CR CR_PI = CR.PI;
-    private final static CR CR_E = CR.ONE.exp();
-    private final static CR CR_SQRT2 = CR.valueOf(2).sqrt();
-    private final static CR CR_SQRT3 = CR.valueOf(3).sqrt();
-    private final static CR CR_LN2 = CR.valueOf(2).ln();
-    private final static CR CR_LN3 = CR.valueOf(3).ln();
-    private final static CR CR_LN5 = CR.valueOf(5).ln();
-    private final static CR CR_LN6 = CR.valueOf(6).ln();
-    private final static CR CR_LN7 = CR.valueOf(7).ln();
-    private final static CR CR_LN10 = CR.valueOf(10).ln();
+    private final static CR CR_E = protect(BoundedRational.ONE.crExpValue());
+    private final static CR CR_SQRT2 = protect(CR.valueOf(2).sqrt());
+    private final static CR CR_SQRT3 = protect(CR.valueOf(3).sqrt());
+    private final static CR CR_LN2 = protect(CR.valueOf(2).ln());
+    private final static CR CR_LN3 = protect(CR.valueOf(3).ln());
+    private final static CR CR_LN5 = protect(CR.valueOf(5).ln());
+    private final static CR CR_LN6 = protect(CR.valueOf(6).ln());
+    private final static CR CR_LN7 = protect(CR.valueOf(7).ln());
+    private final static CR CR_LN10 = protect(CR.valueOf(10).ln());
+
+    private static CR protect(CR x) {
+        x.protectCache();
+        return x;
+    }
 
     // Square roots that we try to recognize.
     // We currently recognize only a small fixed collection, since the sqrt() function needs to
@@ -413,7 +421,7 @@ public class UnifiedReal {
             }
             intScaled = intScaled.shiftRight(EXTRA_PREC);
         }
-        String digits = intScaled.toString();
+        String digits = CR.bigIntegerToString(intScaled, 10);
         int len = digits.length();
         if (len < n + 1) {
             digits = StringUtils.repeat('0', n + 1 - len) + digits;
@@ -423,6 +431,41 @@ public class UnifiedReal {
                 + digits.substring(len - n);
     }
 
+    /**
+     * Return a rough estimate of the work needed to compute toStringTruncated(n), in the units
+     * of CR.estimateCost().  Work already done for earlier, less precise results is not counted,
+     * and neither is the final decimal conversion.  Known rational results are treated as free;
+     * they are cheap compared to anything else.
+     * @param n result precision, >= 0
+     */
+    public long estimateCost(int n) {
+        if (mCrFactor == CR_ONE || mRatFactor.signum() == 0) {
+            return 0;
+        }
+        // toStringTruncated evaluates crValue() times 10^n to EXTRA_PREC bits, for which the
+        // multiplication needs crValue() to msd(10^n) + 3 more bits.
+        final int prec = -EXTRA_PREC - (int) Math.floor(n * LOG2_10) - 3;
+        return crValue().estimateCost(prec);
+    }
+
+    private static final double LOG2_10 = Math.log(10.0) / Math.log(2.0);
+
+    /**
+     * Exempt the cached approximations of this value from CR.appr_cache_budget, until a matching
+     * call to unprotectCache().  Intended for results that are being displayed, and are likely to
+     * be reevaluated to more digits.
+     */
+    public void protectCache() {
+        mCrFactor.protectCache();
+    }
+
+    /**
+     * Undo one call to protectCache().
+     */
+    public void unprotectCache() {
+        mCrFactor.unprotectCache();
+    }
+
     /*
      * Can we compute correctly truncated approximations of this number?
      */
@@ -448,7 +491,222 @@ public class UnifiedReal {
     }
 
     public CR crValue() {
-        return mRatFactor.crValue().multiply(mCrFactor);
+        if (mRatFactor.equals(BoundedRational.ONE)) {
+            return mCrFactor;
+        }
+        final CR ratCR = rationalCR(mRatFactor);
+        if (mCrFactor == CR_ONE) {
+            return ratCR;
+        }
+        return binaryCR("multiply", ratCR, mCrFactor);
+    }
+
+    /**
+     * Key for a CR built by applying an operation to the given operands.
+     * CR operands are compared by identity, since CR equality is not decidable, and we are
+     * only interested in sharing subexpressions built from the same CR objects.  Other operands
+     * (BoundedRationals and BigIntegers) are compared by value.
+     */
+    private static final class CRKey {
+        private final String mOp;
+        private final Object[] mOperands;
+        private final int mHash;
+
+        CRKey(String op, Object... operands) {
+            mOp = op;
+            mOperands = operands;
+            int hash = op.hashCode();
+            for (Object operand : operands) {
+                hash = 31 * hash + (operand instanceof CR ? System.identityHashCode(operand)
+                        : operand.hashCode());
+            }
+            mHash = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CRKey)) {
+                return false;
+            }
+            final CRKey k = (CRKey) o;
+            if (mHash != k.mHash || !mOp.equals(k.mOp) || mOperands.length != k.mOperands.length) {
+                return false;
+            }
+            for (int i = 0; i < mOperands.length; ++i) {
+                final Object x = mOperands[i];
+                final Object y = k.mOperands[i];
+                if (x instanceof CR ? x != y : !x.equals(y)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return mOp + Arrays.toString(mOperands);
+        }
+    }
+
+    // Maximum number of CRs we keep in sInternedCRs.
+    private static final int MAX_INTERNED_CRS = 500;
+
+    // Recently built CRs, indexed by how they were built.  Identical subexpressions, e.g. the
+    // two instances of sin(x) in sin(x)^2 + sin(x), then share a single CR, and thus a single
+    // approximation cache, so that we only evaluate them once.  It also means that mCrFactor
+    // identity comparisons succeed more often.  Kept in access order, so that we discard the
+    // least recently used entry when it gets too big.  Accessed only while holding its lock.
+    private static final LinkedHashMap<CRKey, CR> sInternedCRs =
+            new LinkedHashMap<CRKey, CR>(16, 0.75f, true /* access order */) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<CRKey, CR> eldest) {
+                    return size() > MAX_INTERNED_CRS;
+                }
+            };
+
+    private static CR lookupCR(CRKey key) {
+        synchronized (sInternedCRs) {
+            return sInternedCRs.get(key);
+        }
+    }
+
+    /**
+     * Remember cr as the result for key, unless another thread beat us to it.
+     * Return the CR that should be used.
+     */
+    private static CR internCR(CRKey key, CR cr) {
+        synchronized (sInternedCRs) {
+            final CR previous = sInternedCRs.get(key);
+            if (previous != null) {
+                return previous;
+            }
+            sInternedCRs.put(key, cr);
+            return cr;
+        }
+    }
+
+    /**
+     * Return a CR equal to r, shared with other requests for the same value.
+     */
+    private static CR rationalCR(BoundedRational r) {
+        final CRKey key = new CRKey("rational", r);
+        final CR result = lookupCR(key);
+        return result != null ? result : internCR(key, r.crValue());
+    }
+
+    /**
+     * Return a CR equal to e^r, shared with other requests for the same value.
+     */
+    private static CR rationalExpCR(BoundedRational r) {
+        final CRKey key = new CRKey("rationalExp", r);
+        final CR result = lookupCR(key);
+        return result != null ? result : internCR(key, r.crExpValue());
+    }
+
+    /**
+     * Return a CR equal to atan(r), shared with other requests for the same value.
+     */
+    private static CR rationalAtanCR(BoundedRational r) {
+        final CRKey key = new CRKey("rationalAtan", r);
+        final CR result = lookupCR(key);
+        return result != null ? result : internCR(key, r.crAtanValue());
+    }
+
+    /**
+     * Return a CR equal to the nth root of x, shared with other requests for the same value.
+     */
+    private static CR nthRootCR(CR x, int n) {
+        final CRKey key = new CRKey("nthRoot", x, BigInteger.valueOf(n));
+        final CR result = lookupCR(key);
+        return result != null ? result : internCR(key, x.nthRoot(n));
+    }
+
+    /**
+     * Return a CR equal to x^n, for positive n, shared with other requests for the same value.
+     */
+    private static CR powCR(CR x, BigInteger n) {
+        final CRKey key = new CRKey("pow", x, n);
+        final CR result = lookupCR(key);
+        return result != null ? result : internCR(key, x.pow(n));
+    }
+
+    /**
+     * Return the CR resulting from applying op to x, reusing a previously built one if we can.
+     * Building the CR may itself involve some evaluation, e.g. for argument reduction, which we
+     * also avoid repeating.
+     */
+    private static CR unaryCR(String op, CR x) {
+        final CRKey key = new CRKey(op, x);
+        CR result = lookupCR(key);
+        if (result != null) {
+            return result;
+        }
+        switch (op) {
+            case "negate":
+                result = x.negate();
+                break;
+            case "inverse":
+                result = x.inverse();
+                break;
+            case "sqrt":
+                result = x.sqrt();
+                break;
+            case "sin":
+                result = x.sin();
+                break;
+            case "cos":
+                result = x.cos();
+                break;
+            case "tan":
+                result = x.tan();
+                break;
+            case "asin":
+                result = x.asin();
+                break;
+            case "atan":
+                result = x.atan();
+                break;
+            case "ln":
+                result = x.ln();
+                break;
+            case "exp":
+                result = x.exp();
+                break;
+            default:
+                throw new AssertionError("Unknown unary CR operation " + op);
+        }
+        return internCR(key, result);
+    }
+
+    /**
+     * Return the CR resulting from applying the commutative operation op to x and y, reusing a
+     * previously built one, with the operands in either order, if we can.
+     */
+    private static CR binaryCR(String op, CR x, CR y) {
+        final CRKey key = new CRKey(op, x, y);
+        CR result = lookupCR(key);
+        if (result == null) {
+            result = lookupCR(new CRKey(op, y, x));
+        }
+        if (result != null) {
+            return result;
+        }
+        switch (op) {
+            case "add":
+                result = x.add(y);
+                break;
+            case "multiply":
+                result = x.multiply(y);
+                break;
+            default:
+                throw new AssertionError("Unknown binary CR operation " + op);
+        }
+        return internCR(key, result);
     }
 
     /**
@@ -619,7 +877,7 @@ public class UnifiedReal {
         if (u.definitelyZero()) {
             return this;
         }
-        return new UnifiedReal(crValue().add(u.crValue()));
+        return new UnifiedReal(binaryCR("add", crValue(), u.crValue()));
     }
 
     public UnifiedReal negate() {
@@ -660,9 +918,9 @@ public class UnifiedReal {
         // Probably a bit cheaper to multiply component-wise.
         BoundedRational nRatFactor = BoundedRational.multiply(mRatFactor, u.mRatFactor);
         if (nRatFactor != null) {
-            return new UnifiedReal(nRatFactor, mCrFactor.multiply(u.mCrFactor));
+            return new UnifiedReal(nRatFactor, binaryCR("multiply", mCrFactor, u.mCrFactor));
         }
-        return new UnifiedReal(crValue().multiply(u.crValue()));
+        return new UnifiedReal(binaryCR("multiply", crValue(), u.crValue()));
     }
 
     public static class ZeroDivisionException extends ArithmeticException {
@@ -687,7 +945,7 @@ public class UnifiedReal {
                 return new UnifiedReal(nRatFactor, mCrFactor);
             }
         }
-        return new UnifiedReal(BoundedRational.inverse(mRatFactor), mCrFactor.inverse());
+        return new UnifiedReal(BoundedRational.inverse(mRatFactor), unaryCR("inverse", mCrFactor));
     }
 
     public UnifiedReal divide(UnifiedReal u) {
@@ -725,7 +983,23 @@ public class UnifiedReal {
                 }
             }
         }
-        return new UnifiedReal(crValue().sqrt());
+        return new UnifiedReal(unaryCR("sqrt", crValue()));
+    }
+
+    /**
+     * Return the nth root of this, which should not be negative, for n > 2.
+     */
+    private UnifiedReal nthRoot(int n) {
+        if (definitelyZero()) {
+            return ZERO;
+        }
+        if (mCrFactor == CR_ONE) {
+            final BoundedRational ratRoot = BoundedRational.nthRoot(mRatFactor, n);
+            if (ratRoot != null) {
+                return new UnifiedReal(ratRoot);
+            }
+        }
+        return new UnifiedReal(nthRootCR(crValue(), n));
     }
 
     /**
@@ -783,7 +1057,7 @@ public class UnifiedReal {
                 return result;
             }
         }
-        return new UnifiedReal(crValue().sin());
+        return new UnifiedReal(unaryCR("sin", crValue()));
     }
 
     private static UnifiedReal cosPiTwelfths(int n) {
@@ -802,7 +1076,7 @@ public class UnifiedReal {
                 return result;
             }
         }
-        return new UnifiedReal(crValue().cos());
+        return new UnifiedReal(unaryCR("cos", crValue()));
     }
 
     public UnifiedReal tan() {
@@ -810,7 +1084,8 @@ public class UnifiedReal {
         if (piTwelfths != null) {
             int i = piTwelfths.intValue();
             if (i == 6 || i == 18) {
-                throw new ArithmeticException("Tangent undefined");
+                // The same error we'd get for sin()/cos().
+                throw new ZeroDivisionException();
             }
             UnifiedReal top = sinPiTwelfths(i);
             UnifiedReal bottom = cosPiTwelfths(i);
@@ -818,7 +1093,7 @@ public class UnifiedReal {
                 return top.divide(bottom);
             }
         }
-        return sin().divide(cos());
+        return new UnifiedReal(unaryCR("tan", crValue()));
     }
 
     // Throw an exception if the argument is definitely out of bounds for asin or acos.
@@ -860,7 +1135,7 @@ public class UnifiedReal {
         if (definitelyEquals(HALF_SQRT3)) {
             return new UnifiedReal(BoundedRational.THIRD, CR_PI);
         }
-        return new UnifiedReal(crValue().asin());
+        return new UnifiedReal(unaryCR("asin", crValue()));
     }
 
     public UnifiedReal asin() {
@@ -872,7 +1147,7 @@ public class UnifiedReal {
         if (mCrFactor == CR.ONE || mCrFactor != CR_SQRT2 ||mCrFactor != CR_SQRT3) {
             return asinNonHalves();
         }
-        return new UnifiedReal(crValue().asin());
+        return new UnifiedReal(unaryCR("asin", crValue()));
     }
 
     public UnifiedReal acos() {
@@ -902,72 +1177,22 @@ public class UnifiedReal {
         if (definitelyEquals(SQRT3)) {
             return PI_OVER_3;
         }
-        return new UnifiedReal(UnaryCRFunction.atanFunction.execute(crValue()));
+        if (mCrFactor == CR_ONE) {
+            return new UnifiedReal(rationalAtanCR(mRatFactor));
+        }
+        return new UnifiedReal(unaryCR("atan", crValue()));
     }
 
     private static final BigInteger BIG_TWO = BigInteger.valueOf(2);
 
-    // The (in abs value) integral exponent for which we attempt to use a recursive
-    // algorithm for evaluating pow(). The recursive algorithm works independent of the sign of the
-    // base, and can produce rational results. But it can become slow for very large exponents.
-    private static final BigInteger RECURSIVE_POW_LIMIT = BigInteger.valueOf(1000);
-    // The corresponding limit when we're using rational arithmetic. This should fail fast
-    // anyway, but we avoid ridiculously deep recursion.
+    // The largest (in abs value) integral exponent for which we try rational arithmetic in
+    // pow().  This should fail fast anyway, but we avoid ridiculously deep recursion.
     private static final BigInteger HARD_RECURSIVE_POW_LIMIT = BigInteger.ONE.shiftLeft(1000);
 
-    /**
-     * Compute an integral power of a constructive real, using the standard recursive algorithm.
-     * exp is known to be positive.
-     */
-    private static CR recursivePow(CR base, BigInteger exp) {
-        if (exp.equals(BigInteger.ONE)) {
-            return base;
-        }
-        if (exp.testBit(0)) {
-            return base.multiply(recursivePow(base, exp.subtract(BigInteger.ONE)));
-        }
-        CR tmp = recursivePow(base, exp.shiftRight(1));
-        if (Thread.interrupted()) {
-            throw new CR.AbortedException();
-        }
-        return tmp.multiply(tmp);
-    }
-
-    /**
-     * Compute an integral power of a constructive real, using the exp function when
-     * we safely can. Use recursivePow when we can't. exp is known to be nozero.
-     */
-    private UnifiedReal expLnPow(BigInteger exp) {
-        int sign = signum(DEFAULT_COMPARE_TOLERANCE);
-        if (sign > 0) {
-            // Safe to take the log. This avoids deep recursion for huge exponents, which
-            // may actually make sense here.
-            return new UnifiedReal(crValue().ln().multiply(CR.valueOf(exp)).exp());
-        } else if (sign < 0) {
-            CR result = crValue().negate().ln().multiply(CR.valueOf(exp)).exp();
-            if (exp.testBit(0) /* odd exponent */) {
-                result = result.negate();
-            }
-            return new UnifiedReal(result);
-        } else {
-            // Base of unknown sign with integer exponent. Use a recursive computation.
-            // (Another possible option would be to use the absolute value of the base, and then
-            // adjust the sign at the end.  But that would have to be done in the CR
-            // implementation.)
-            if (exp.signum() < 0) {
-                // This may be very expensive if exp.negate() is large.
-                return new UnifiedReal(recursivePow(crValue(), exp.negate()).inverse());
-            } else {
-                return new UnifiedReal(recursivePow(crValue(), exp));
-            }
-        }
-    }
-
-
     /**
      * Compute an integral power of this.
-     * This recurses roughly as deeply as the number of bits in the exponent, and can, in
-     * ridiculous cases, result in a stack overflow.
+     * Irrational results are computed by a single CR node, which handles bases of any sign, and
+     * takes time roughly proportional to the number of bits in the exponent.
      */
     private UnifiedReal pow(BigInteger exp) {
         if (exp.equals(BigInteger.ONE)) {
@@ -978,8 +1203,8 @@ public class UnifiedReal {
             // Java.lang.Math.pow() returns 1 anyway, so we do the same.
             return ONE;
         }
-        BigInteger absExp = exp.abs();
-        if (mCrFactor == CR_ONE && absExp.compareTo(HARD_RECURSIVE_POW_LIMIT) <= 0) {
+        final boolean smallExp = exp.abs().compareTo(HARD_RECURSIVE_POW_LIMIT) <= 0;
+        if (mCrFactor == CR_ONE && smallExp) {
             final BoundedRational ratPow = mRatFactor.pow(exp);
             // We count on this to fail, e.g. for very large exponents, when it would
             // otherwise be too expensive.
@@ -987,10 +1212,7 @@ public class UnifiedReal {
                 return new UnifiedReal(ratPow);
             }
         }
-        if (absExp.compareTo(RECURSIVE_POW_LIMIT) > 0) {
-            return expLnPow(exp);
-        }
-        BoundedRational square = getSquare(mCrFactor);
+        final BoundedRational square = smallExp ? getSquare(mCrFactor) : null;
         if (square != null) {
             final BoundedRational nRatFactor =
                     BoundedRational.multiply(mRatFactor.pow(exp), square.pow(exp.shiftRight(1)));
@@ -1003,9 +1225,16 @@ public class UnifiedReal {
                 }
             }
         }
-        return expLnPow(exp);
+        if (exp.signum() < 0) {
+            return new UnifiedReal(unaryCR("inverse", powCR(crValue(), exp.negate())));
+        }
+        return new UnifiedReal(powCR(crValue(), exp));
     }
 
+    // Largest n for which pow() computes x^(m/n) as an nth root of x^m, rather than as
+    // exp(ln(x) * m/n).  The root's cost grows with n, but at this degree it's still cheaper.
+    private static final int MAX_ROOT_DEGREE = 32;
+
     /**
      * Return this ^ expon.
      * This is really only well-defined for a positive base, particularly since
@@ -1022,6 +1251,8 @@ public class UnifiedReal {
             }
         }
         final BoundedRational expAsBR = expon.boundedRationalValue();
+        int rootDegree = 0;  // Nonzero if expon is rootNumerator / rootDegree.
+        BigInteger rootNumerator = null;
         if (expAsBR != null) {
             BigInteger expAsBI = BoundedRational.asBigInteger(expAsBR);
             if (expAsBI != null) {
@@ -1033,6 +1264,17 @@ public class UnifiedReal {
                 if (expAsBI != null) {
                     return pow(expAsBI).sqrt();
                 }
+                // Check for other exponents with small denominators, for which an nth root is
+                // much cheaper than going through exp() and ln().
+                for (int n = 3; n <= MAX_ROOT_DEGREE; ++n) {
+                    expAsBI = BoundedRational.asBigInteger(
+                            BoundedRational.multiply(new BoundedRational(n), expAsBR));
+                    if (expAsBI != null) {
+                        rootDegree = n;
+                        rootNumerator = expAsBI;
+                        break;
+                    }
+                }
             }
         }
         // If the exponent were known zero, we would have handled it above.
@@ -1043,7 +1285,11 @@ public class UnifiedReal {
         if (sign < 0) {
             throw new ArithmeticException("Negative base for pow() with non-integer exponent");
         }
-        return new UnifiedReal(crValue().ln().multiply(expon.crValue()).exp());
+        if (rootDegree != 0) {
+            return pow(rootNumerator).nthRoot(rootDegree);
+        }
+        return new UnifiedReal(unaryCR("exp",
+                binaryCR("multiply", unaryCR("ln", crValue()), expon.crValue())));
     }
 
     /**
@@ -1077,9 +1323,7 @@ public class UnifiedReal {
         BigInteger bigBase = BigInteger.valueOf(base);
         BigInteger base16th = null;  // base^16, computed lazily
         while (n.mod(bigBase).signum() == 0) {
-            if (Thread.interrupted()) {
-                throw new CR.AbortedException();
-            }
+            CR.checkAborted();
             n = n.divide(bigBase);
             ++result;
             // And try a slightly faster computation for large n:
@@ -1146,7 +1390,7 @@ public class UnifiedReal {
                 }
             }
         }
-        return new UnifiedReal(crValue().ln());
+        return new UnifiedReal(unaryCR("ln", crValue()));
     }
 
     public UnifiedReal exp() {
@@ -1176,7 +1420,10 @@ public class UnifiedReal {
                 return result;
             }
         }
-        return new UnifiedReal(crValue().exp());
+        if (mCrFactor == CR_ONE) {
+            return new UnifiedReal(rationalExpCR(mRatFactor));
+        }
+        return new UnifiedReal(unaryCR("exp", crValue()));
     }
 
 
@@ -1188,13 +1435,9 @@ public class UnifiedReal {
     private static BigInteger genFactorial(long n, long step) {
         if (n > 4 * step) {
             BigInteger prod1 = genFactorial(n, 2 * step);
-            if (Thread.interrupted()) {
-                throw new CR.AbortedException();
-            }
+            CR.checkAborted();
             BigInteger prod2 = genFactorial(n - step, 2 * step);
-            if (Thread.interrupted()) {
-                throw new CR.AbortedException();
-            }
+            CR.checkAborted();
             return prod1.multiply(prod2);
         } else {
             if (n == 0) {
@@ -115,8 +115,33 @@ package com.hp.creals;
 
 import android.util.Log;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.zip.CRC32;
 
 /**
 * Constructive real numbers, also known as recursive, or computable reals.
@@ -162,8 +187,20 @@ import java.util.ArrayList;
 * provides the same functionality, but adds the caching necessary to obtain
 * reasonable performance.
 * <P>
+* An overridden <TT>approximate</tt> may be abandoned part way through by
+* an unchecked exception thrown from <TT>get_appr</tt> on an operand, and
+* called again later.  Besides reporting errors and cancellation, such
+* exceptions are used to evaluate deeply nested expressions without
+* exhausting the stack: an operand needed too far down is evaluated
+* first, and the abandoned evaluations are then restarted.  Thus
+* <TT>approximate</tt> should not catch <TT>RuntimeException</tt>s from
+* <TT>get_appr</tt> without rethrowing them, and should leave any state
+* it keeps between calls consistent if one propagates.
+* <P>
 * Any operation may throw <TT>com.hp.creals.AbortedException</tt> if the thread
-* in which it is executing is interrupted.  (<TT>InterruptedException</tt>
+* in which it is executing is interrupted, or if the
+* <TT>CR.CancellationToken</tt> installed for that thread is cancelled or
+* times out.  (<TT>InterruptedException</tt>
 * cannot be used for this purpose, since CR inherits from <TT>Number</tt>.)
 * <P>
 * Any operation may also throw <TT>com.hp.creals.PrecisionOverflowException</tt>
@@ -213,8 +250,7 @@ public static class PrecisionOverflowException extends RuntimeException {
       static final BigInteger big6 = BigInteger.valueOf(6);
       static final BigInteger big8 = BigInteger.valueOf(8);
       static final BigInteger big10 = BigInteger.TEN;
-      static final BigInteger big750 = BigInteger.valueOf(750);
-      static final BigInteger bigm750 = BigInteger.valueOf(-750);
+      static final BigInteger big184 = BigInteger.valueOf(184);
 
 /**
 * Setting this to true requests that  all computations be aborted by
@@ -224,6 +260,120 @@ public static class PrecisionOverflowException extends RuntimeException {
 */
 public volatile static boolean please_stop = false;
 
+/**
+* A request to abandon one particular computation.
+* Unlike <TT>please_stop</tt> and thread interruption, cancelling a token
+* affects only computations performed while it is installed, via
+* <TT>setCancellationToken</tt>, for the thread performing them.
+* A token may also carry a deadline, after which it behaves as though
+* it had been cancelled.
+*/
+public static class CancellationToken {
+    private volatile boolean cancelled = false;
+    private volatile boolean has_deadline = false;
+    private volatile long deadline;  // In System.nanoTime() units.
+
+/**
+* Request that the corresponding computation be aborted.
+*/
+    public void cancel() { cancelled = true; }
+
+/**
+* Abort the corresponding computation if it is still running
+* after the given time.
+* @param millis     Time limit, measured from now, in milliseconds.
+*/
+    public void setTimeout(long millis) {
+        deadline = System.nanoTime() + millis * 1000000L;
+        has_deadline = true;
+    }
+
+/**
+* Has <TT>cancel</tt> been called?
+*/
+    public boolean isCancelled() { return cancelled; }
+
+/**
+* Has the deadline set by <TT>setTimeout</tt> passed?
+*/
+    public boolean hasTimedOut() {
+        return has_deadline && System.nanoTime() - deadline >= 0;
+    }
+
+/**
+* Should the computation stop?
+*/
+    public boolean shouldStop() { return cancelled || hasTimedOut(); }
+}
+
+    private static final ThreadLocal<CancellationToken> current_token =
+            new ThreadLocal<CancellationToken>();
+
+/**
+* Install a cancellation token for subsequent computations performed by
+* the current thread.
+* @param t      The new token, or null to remove the current one.
+* @return       The previously installed token, or null.
+*/
+public static CancellationToken setCancellationToken(CancellationToken t) {
+    final CancellationToken result = current_token.get();
+    current_token.set(t);
+    return result;
+}
+
+/**
+* Return the cancellation token installed for the current thread, or null.
+*/
+public static CancellationToken getCancellationToken() {
+    return current_token.get();
+}
+
+/**
+* Throw <TT>AbortedException</tt> if the current thread has been interrupted,
+* <TT>please_stop</tt> is set, or the current thread's cancellation token
+* requests that we stop.  Called periodically by long running computations.
+*/
+public static void checkAborted() {
+    if (Thread.interrupted() || please_stop) {
+        throw new AbortedException();
+    }
+    final CancellationToken t = current_token.get();
+    if (t != null && t.shouldStop()) {
+        throw new AbortedException();
+    }
+}
+
+/**
+* Precision, in bits, beyond which natural logarithms are computed using
+* the arithmetic-geometric mean instead of a Taylor series.  The AGM
+* algorithm has higher overhead, but much better asymptotic performance.
+* Setting this to <TT>Integer.MAX_VALUE</tt> disables it.
+*/
+public volatile static int ln_agm_threshold = 1000;
+
+/**
+* Maximum depth to which <TT>get_appr</tt> calls on uncached values
+* may nest before the evaluation is restructured to avoid deep JVM
+* recursion.  Approximations needed beyond that depth are deferred,
+* computed from an explicit work stack, and the evaluations that
+* needed them are then retried, finding them in the cache.  Thus long
+* chains of operations can be evaluated without exhausting a thread's
+* stack.  The first time this happens in an evaluation, the precision
+* each node will be needed at is estimated in a single pass over the
+* expression, and the nodes are evaluated deepest first at that
+* precision, so that each is usually evaluated only once.
+*/
+public volatile static int max_eval_depth = 200;
+
+/**
+* Number of times an evaluation may be retried after deferring a deeper
+* one, before we give up on bounding its depth and just let it recurse.
+* This only matters for <TT>approximate</tt> methods that build and
+* evaluate new temporary <TT>CR</tt>s, whose cached values cannot be
+* found when retried.
+*/
+public volatile static int max_deferrals = 100;
+
 /**
 * Must be defined in subclasses of <TT>CR</tt>.
 * Most users can ignore the existence of this method, and will
@@ -234,17 +384,121 @@ public volatile static boolean please_stop = false;
 * accurate to 2**n.
 * Implementations may safely assume that precision is
 * at least a factor of 8 away from overflow.
-* Called only with the lock on the <TT>CR</tt> object
-* already held.
+* May be called concurrently by several threads for the same
+* <TT>CR</tt> object.  Implementations that keep additional state
+* must synchronize access to it themselves.
+* Successive calls usually ask for increasing precision, as more
+* digits are displayed.  Implementations may keep state from earlier
+* calls, such as exact partial sums, so that they only pay for
+* the additional precision.
 */
       protected abstract BigInteger approximate(int precision);
-      transient int min_prec;
-        // The smallest precision value with which the above
-        // has been called.
-      transient BigInteger max_appr;
-        // The scaled approximation corresponding to min_prec.
-      transient boolean appr_valid = false;
-        // min_prec and max_val are valid.
+
+    // An immutable pair of the most precise approximation computed so
+    // far, and its precision.  Always replaced as a whole, so readers
+    // see a consistent pair without locking.
+      static final class appr_snapshot {
+        final int min_prec;
+            // The smallest precision value with which approximate
+            // has been called.
+        final BigInteger max_appr;
+            // The scaled approximation corresponding to min_prec.
+        cache_budget.entry entry;
+            // Accounts for max_appr in cache_budget, or null if it is
+            // too small to bother.  Set before publication.
+        appr_snapshot(int p, BigInteger a) {
+            min_prec = p;
+            max_appr = a;
+        }
+      }
+      transient volatile appr_snapshot appr_cache;
+        // null ==> no approximation computed yet.
+      static final AtomicReferenceFieldUpdater<CR, appr_snapshot>
+              appr_cache_updater = AtomicReferenceFieldUpdater.newUpdater(
+                      CR.class, appr_snapshot.class, "appr_cache");
+      int msd_hint = no_msd_hint;
+        // A guess at msd(), computed by the constructor from the
+        // operands' hints, without evaluating anything.  Not a bound:
+        // cancellation in a sum can make the value arbitrarily smaller.
+        // It only tells us where to start looking for the msd.
+      static final int no_msd_hint = Integer.MIN_VALUE;
+        // No guess available.
+
+    // Publish an approximation of this value to precision p, unless
+    // some other thread has meanwhile published a more precise one.
+    // Never replaces an approximation by a less precise one.
+      void update_appr(int p, BigInteger appr) {
+        final appr_snapshot new_cache = new appr_snapshot(p, appr);
+        if (appr.bitLength() >= cache_budget.min_tracked_bits) {
+            new_cache.entry = new cache_budget.appr_entry(this, new_cache);
+        }
+        for (;;) {
+            final appr_snapshot old_cache = appr_cache;
+            if (old_cache != null && old_cache.min_prec <= p) return;
+            if (appr_cache_updater.compareAndSet(this, old_cache, new_cache)) {
+                if (old_cache != null && old_cache.entry != null) {
+                    cache_budget.remove(old_cache.entry);
+                }
+                if (new_cache.entry != null) {
+                    cache_budget.add(new_cache.entry);
+                }
+                return;
+            }
+        }
+      }
+
+/**
+* Approximate limit, in bits, on the memory occupied by the cached
+* approximations of all constructive reals, together with other
+* intermediate results kept across approximations.  Beyond it, the least
+* recently used ones are discarded, and recomputed if they are needed
+* again, except for those of numbers passed to <TT>protectCache</tt>.
+* Only approximations of at least a few thousand digits count.
+* Setting this to <TT>Long.MAX_VALUE</tt> disables it.
+*/
+public volatile static long appr_cache_budget = 1L << 28;
+
+      volatile int protect_count = 0;
+        // Number of protectCache calls not yet matched by unprotectCache.
+      static final AtomicIntegerFieldUpdater<CR> protect_count_updater =
+              AtomicIntegerFieldUpdater.newUpdater(CR.class, "protect_count");
+
+/**
+* Exempt the cached approximation of this number from
+* <TT>appr_cache_budget</tt>, until a matching call to
+* <TT>unprotectCache</tt>.  Intended for results that are being displayed,
+* and for constants.  Does not protect the subexpressions of this number.
+* Calls may be nested.
+*/
+    public void protectCache() {
+        protect_count_updater.incrementAndGet(this);
+    }
+
+/**
+* Undo one call to <TT>protectCache</tt>.
+*/
+    public void unprotectCache() {
+        protect_count_updater.decrementAndGet(this);
+    }
+
+    // protectCache(x), returning x.  For initializing constants.
+      static CR protect(CR x) {
+        x.protectCache();
+        return x;
+      }
+
+    // Replace the cached approximation s, if it is still current, by a
+    // truncated one that takes negligible space.  We never discard it
+    // completely, so once set, appr_cache remains non-null, and it still
+    // determines the msd.  Truncation adds at most 1/2 ulp of error at
+    // the new precision to an error of much less than 1/2 ulp.
+      void truncate_appr(appr_snapshot s) {
+        final int shift = s.max_appr.bitLength() - cache_budget.truncated_bits;
+        if (shift <= 0) return;
+        final appr_snapshot truncated =
+                new appr_snapshot(s.min_prec + shift, scale(s.max_appr, -shift));
+        appr_cache_updater.compareAndSet(this, s, truncated);
+      }
 
     // Helper functions
       static int bound_log2(int n) {
@@ -355,46 +609,175 @@ public volatile static boolean please_stop = false;
 * Normally not overridden, and called only from <TT>approximate</tt>
 * methods in subclasses.  Not needed if the provided operations
 * on constructive reals suffice.
+* Never blocks; concurrent callers needing a more precise
+* approximation may compute it redundantly.
 */
-      public synchronized BigInteger get_appr(int precision) {
+      public BigInteger get_appr(int precision) {
         check_prec(precision);
-        if (appr_valid && precision >= min_prec) {
-            return scale(max_appr, min_prec - precision);
-        } else {
-            BigInteger result = approximate(precision);
-            min_prec = precision;
-            max_appr = result;
-            appr_valid = true;
-            return result;
+        final appr_snapshot cache = appr_cache;
+        if (cache != null && precision >= cache.min_prec) {
+            final cache_budget.entry e = cache.entry;
+            if (e != null) e.last_use = cache_budget.clock;
+            return scale(cache.max_appr, cache.min_prec - precision);
+        }
+        final eval_depth depth = current_depth.get();
+        if (depth.value == 0) {
+            return schedule_appr(precision, depth);
+        }
+        if (depth.value >= depth.limit) {
+            throw new deferred_appr(new pending_appr(this, precision));
+        }
+        ++depth.value;
+        try {
+            return compute_appr(precision);
+        } catch (deferred_appr d) {
+            // Retry this evaluation once the deferred one is done.
+            d.path.add(new pending_appr(this, precision));
+            throw d;
+        } finally {
+            --depth.value;
+        }
+      }
+
+    // Compute an approximation that get_appr did not find in the cache,
+    // and update the cache.  Overridden by slow_CR, which computes more
+    // than was asked for.
+      BigInteger compute_appr(int precision) {
+        BigInteger result = approximate(precision);
+        update_appr(precision, result);
+        return result;
+      }
+
+    // Nesting depth of get_appr calls that missed the cache in the
+    // current thread, and the depth at which we stop nesting them.
+    // A depth of zero means that no evaluation is in progress.
+      static final class eval_depth {
+        int value = 0;
+        int limit;
+        boolean prefetching = false;  // In prefetch_operands.
+        int locks_held = 0;  // See locked_appr.
+      }
+      private static final ThreadLocal<eval_depth> current_depth =
+              new ThreadLocal<eval_depth>() {
+                  @Override
+                  protected eval_depth initialValue() {
+                      return new eval_depth();
+                  }
+              };
+
+    // Outermost get_appr call that misses the cache.  Evaluate with bounded
+    // recursion depth.  An approximation needed at depth max_eval_depth is
+    // pushed onto an explicit stack, together with the chain of evaluations
+    // that needed it, and evaluated first, from the bottom of the JVM stack.
+    // Each of those evaluations is then restarted in turn, and finds what it
+    // needs in the cache.  Each retry adds at least one deferred
+    // approximation to the cache, unless approximate() built it as a
+    // temporary, so this terminates.  Bound the retries to handle the
+    // latter case.
+      private BigInteger schedule_appr(int precision, eval_depth depth) {
+        final ArrayList<pending_appr> pending = new ArrayList<pending_appr>();
+        pending.add(new pending_appr(this, precision));
+        boolean prefetched = false;
+        try {
+            for (;;) {
+                final pending_appr top = pending.get(pending.size() - 1);
+                depth.value = 1;
+                depth.limit = (top.deferrals < max_deferrals ? max_eval_depth
+                                                               : Integer.MAX_VALUE);
+                try {
+                    final BigInteger result = top.node.compute_appr(top.precision);
+                    pending.remove(pending.size() - 1);
+                    if (pending.isEmpty()) return result;
+                } catch (deferred_appr d) {
+                    ++top.deferrals;
+                    // d.path lists the deferred approximation first, followed
+                    // by the evaluations that needed it.
+                    for (int i = d.path.size() - 1; i >= 0; --i) {
+                        pending.add(d.path.get(i));
+                    }
+                    checkAborted();
+                    if (!prefetched && !depth.prefetching) {
+                        // The expression is deep.  Make sure we don't
+                        // evaluate its nodes over and over.
+                        prefetched = true;
+                        depth.value = 0;
+                        prefetch_operands(precision);
+                    }
+                }
+            }
+        } finally {
+            depth.value = 0;
+        }
+      }
+
+    // Nodes of a deep expression are often asked for approximations of
+    // increasing precision, each of which misses the cache.  For example,
+    // mult_CR first asks an operand for its msd at about half the
+    // precision it needs, and only then for the precision it needs, so a
+    // node n multiplications down is asked for about n precisions.  To
+    // avoid that, we find the precision each node below this one will be
+    // needed at in a single pass from the top, as estimateCost does,
+    // and then evaluate the nodes in the opposite order, at slightly
+    // more than that precision.  Evaluating this node then mostly finds
+    // its operands in the cache.  The precisions rely on msd hints and
+    // cached approximations, and may be off.  That only costs time.
+      static final int prefetch_slack = 8;
+      private void prefetch_operands(int precision) {
+        final ArrayList<CR> order = new ArrayList<CR>();
+        plan_cost(precision, order);
+        final eval_depth depth = current_depth.get();
+        depth.prefetching = true;
+        try {
+            for (int i = order.size() - 1; i >= 0; --i) {
+                final CR x = order.get(i);
+                if (x == this) continue;
+                checkAborted();
+                x.get_appr(x.cost_plan.precision - prefetch_slack);
+            }
+        } finally {
+            depth.prefetching = false;
         }
       }
 
     // Return the position of the msd.
     // If x.msd() == n then
     // 2**(n-1) < abs(x) < 2**(n+1)
-    // This initial version assumes that max_appr is valid
-    // and sufficiently removed from zero
+    // This initial version assumes that the cached approximation
+    // exists and is sufficiently removed from zero
     // that the msd is determined.
       int known_msd() {
+        final appr_snapshot cache = appr_cache;
         int first_digit;
         int length;
-        if (max_appr.signum() >= 0) {
-            length = max_appr.bitLength();
+        if (cache.max_appr.signum() >= 0) {
+            length = cache.max_appr.bitLength();
         } else {
-            length = max_appr.negate().bitLength();
+            length = cache.max_appr.negate().bitLength();
         }
-        first_digit = min_prec + length - 1;
+        first_digit = cache.min_prec + length - 1;
         return first_digit;
       }
 
     // This version may return Integer.MIN_VALUE if the correct
     // answer is < n.
       int msd(int n) {
-        if (!appr_valid ||
-                max_appr.compareTo(big1) <= 0
-                && max_appr.compareTo(bigm1) >= 0) {
+        final appr_snapshot cache = appr_cache;
+        if (cache == null ||
+                cache.max_appr.compareTo(big1) <= 0
+                && cache.max_appr.compareTo(bigm1) >= 0) {
+            // If the hint puts the msd well to the left of n, a much
+            // cheaper approximation will usually determine it.
+            int hint_prec = msd_hint - 16;
+            if (msd_hint != no_msd_hint && hint_prec > n + 30
+                    && (cache == null || hint_prec < cache.min_prec)) {
+                get_appr(hint_prec);
+                if (appr_cache.max_appr.abs().compareTo(big1) > 0) {
+                    return known_msd();
+                }
+            }
             get_appr(n - 1);
-            if (max_appr.abs().compareTo(big1) <= 0) {
+            // The cache now holds an approximation at least that precise.
+            if (appr_cache.max_appr.abs().compareTo(big1) <= 0) {
                 // msd could still be arbitrarily far to the right.
                 return Integer.MIN_VALUE;
             }
@@ -408,14 +791,18 @@ public volatile static boolean please_stop = false;
       int iter_msd(int n)
       {
         int prec = 0;
-
+        // If the hint puts the msd well to the right of the binary
+        // point, start just below it, rather than rediscovering it
+        // with a sequence of evaluations of the whole expression.
+        // If the value turns out to be smaller, we continue from there.
+        if (msd_hint != no_msd_hint && msd_hint < -16) {
+            prec = msd_hint - 16;
+        }
         for (;prec > n + 30; prec = (prec * 3)/2 - 16) {
             int msd = msd(prec);
             if (msd != Integer.MIN_VALUE) return msd;
             check_prec(prec);
-            if (Thread.interrupted() || please_stop) {
-                throw new AbortedException();
-            }
+            checkAborted();
         }
         return msd(n);
       }
@@ -449,12 +836,13 @@ public volatile static boolean please_stop = false;
         static CR ln2_2 =
                 valueOf(2).multiply(twentyfive_twentyfourths.simple_ln());
         static CR ln2_3 = valueOf(3).multiply(eightyone_eightyeths.simple_ln());
-        static CR ln2 = ln2_1.subtract(ln2_2).add(ln2_3);
+        static CR series_ln2 = ln2_1.subtract(ln2_2).add(ln2_3);
+        static CR ln2 = protect(new ln2_CR());
 
     // Atan of integer reciprocal.  Used for atan_PI.  Could perhaps be made
     // public.
         static CR atan_reciprocal(int n) {
-            return new integral_atan_CR(n);
+            return new rational_atan_CR(big1, BigInteger.valueOf(n));
         }
     // Other constants used for PI computation.
         static CR four = valueOf(4);
@@ -516,9 +904,7 @@ public volatile static boolean please_stop = false;
             check_prec(a);
             int result = compareTo(x, a);
             if (0 != result) return result;
-            if (Thread.interrupted() || please_stop) {
-                throw new AbortedException();
-            }
+            checkAborted();
         }
       }
 
@@ -526,8 +912,9 @@ public volatile static boolean please_stop = false;
 * Equivalent to <TT>compareTo(CR.valueOf(0), a)</tt>
 */
       public int signum(int a) {
-        if (appr_valid) {
-            int quick_try = max_appr.signum();
+        final appr_snapshot cache = appr_cache;
+        if (cache != null) {
+            int quick_try = cache.max_appr.signum();
             if (0 != quick_try) return quick_try;
         }
         int needed_prec = a - 1;
@@ -548,9 +935,7 @@ public volatile static boolean please_stop = false;
             check_prec(a);
             int result = signum(a);
             if (0 != result) return result;
-            if (Thread.interrupted() || please_stop) {
-                throw new AbortedException();
-            }
+            checkAborted();
         }
       }
 
@@ -582,6 +967,148 @@ public volatile static boolean please_stop = false;
           return CR.valueOf(scaled_result).divide(CR.valueOf(divisor));
       }
 
+/**
+* Numbers of at least this many bits are converted to strings by
+* <TT>bigIntegerToString</tt> using several threads.
+* Setting this to <TT>Integer.MAX_VALUE</tt> disables it.
+*/
+public volatile static int parallel_conversion_threshold = 1 << 20;
+
+    // Numbers with at most this many bits are converted directly by
+    // BigInteger.toString().
+      static final int conversion_leaf_bits = 2048;
+
+    // For each radix, the powers radix**(leaf_digits * 2**i), i = 0, 1, ...
+    // needed so far, where leaf_digits is chosen so that the smallest power
+    // has roughly conversion_leaf_bits.
+      private static final ArrayList<ArrayList<BigInteger>> radix_powers =
+              new ArrayList<ArrayList<BigInteger>>();
+
+    // Number of digits in radix corresponding to radix_powers(radix, 0).
+      static int leaf_digits(int radix) {
+        return (int)(conversion_leaf_bits / (Math.log(radix) / Math.log(2)));
+      }
+
+    // Return radix**(leaf_digits(radix) * 2**i).
+      private static BigInteger radix_power(int radix, int i) {
+        synchronized (radix_powers) {
+            while (radix_powers.size() <= radix) {
+                radix_powers.add(new ArrayList<BigInteger>());
+            }
+            final ArrayList<BigInteger> powers = radix_powers.get(radix);
+            if (powers.isEmpty()) {
+                powers.add(BigInteger.valueOf(radix).pow(leaf_digits(radix)));
+            }
+            while (powers.size() <= i) {
+                final BigInteger last = powers.get(powers.size() - 1);
+                powers.add(last.multiply(last));
+            }
+            return powers.get(i);
+        }
+      }
+
+    // Append the representation of the nonnegative n to result, padded with
+    // leading zeroes to exactly width digits, unless width is zero.  Assumes
+    // n < radix_power(radix, level + 1), and level >= -1.
+      static void append_digits(StringBuilder result, BigInteger n, int radix,
+                                int level, int width) {
+        if (level < 0) {
+            final String digits = n.toString(radix);
+            for (int i = digits.length(); i < width; ++i) {
+                result.append('0');
+            }
+            result.append(digits);
+            return;
+        }
+        checkAborted();
+        final BigInteger[] qr = n.divideAndRemainder(radix_power(radix, level));
+        final int low_width = leaf_digits(radix) << level;
+        if (width == 0 && qr[0].signum() == 0) {
+            append_digits(result, qr[1], radix, level - 1, 0);
+            return;
+        }
+        final int high_width = (width == 0 ? 0 : width - low_width);
+        if (n.bitLength() >= parallel_conversion_threshold) {
+            // Convert the two halves concurrently.
+            final String[] high = new String[1];
+            final String[] low = new String[1];
+            ForkJoinTask<?> high_task =
+                    conversion_task(high, qr[0], radix, level - 1, high_width);
+            ForkJoinTask<?> low_task =
+                    conversion_task(low, qr[1], radix, level - 1, low_width);
+            ForkJoinTask.invokeAll(high_task, low_task);
+            result.append(high[0]).append(low[0]);
+            return;
+        }
+        append_digits(result, qr[0], radix, level - 1, high_width);
+        append_digits(result, qr[1], radix, level - 1, low_width);
+      }
+
+    // A task computing append_digits() into out[0] on the fork-join pool.
+    // It inherits the current thread's cancellation token.
+      private static ForkJoinTask<?> conversion_task(
+              final String[] out, final BigInteger n, final int radix,
+              final int level, final int width) {
+        final CancellationToken token = getCancellationToken();
+        return new RecursiveAction() {
+            protected void compute() {
+                final CancellationToken previous = setCancellationToken(token);
+                try {
+                    final StringBuilder sb = new StringBuilder();
+                    append_digits(sb, n, radix, level, width);
+                    out[0] = sb.toString();
+                } finally {
+                    setCancellationToken(previous);
+                }
+            }
+        };
+      }
+
+      private static ForkJoinPool fork_join_pool;
+
+    // A pool shared by our parallel computations.  Created lazily.
+      static synchronized ForkJoinPool fork_join_pool() {
+        if (fork_join_pool == null) {
+            fork_join_pool = new ForkJoinPool();
+        }
+        return fork_join_pool;
+      }
+
+/**
+* Return the representation of <TT>n</tt> in the given radix, exactly as
+* <TT>n.toString(radix)</tt> would.
+* Large numbers are split by divide-and-conquer, using cached powers
+* of the radix, so that the conversion takes time proportional to that of
+* multiplication, rather than quadratic time.
+*
+*       @param  n       The integer to be converted
+*       @param  radix   Base (>= 2, <= 36) for the resulting representation.
+*/
+      public static String bigIntegerToString(BigInteger n, int radix) {
+        if (n.bitLength() <= conversion_leaf_bits) {
+            return n.toString(radix);
+        }
+        final BigInteger abs_n = n.abs();
+        // Find the smallest level with abs_n < radix_power(radix, level + 1).
+        int level = 0;
+        while (radix_power(radix, level + 1).bitLength() <= abs_n.bitLength()) {
+            ++level;
+        }
+        final StringBuilder result = new StringBuilder();
+        if (n.signum() < 0) {
+            result.append('-');
+        }
+        if (abs_n.bitLength() >= parallel_conversion_threshold
+                && !ForkJoinTask.inForkJoinPool()) {
+            final String[] digits = new String[1];
+            fork_join_pool().invoke(conversion_task(digits, abs_n, radix, level, 0));
+            result.append(digits[0]);
+        } else {
+            append_digits(result, abs_n, radix, level, 0);
+        }
+        return result.toString();
+      }
+
 /**
 * Return a textual representation accurate to <TT>n</tt> places
 * to the right of the decimal point.  <TT>n</tt> must be nonnegative.
@@ -598,7 +1125,7 @@ public volatile static boolean please_stop = false;
             scaled_CR = multiply(new int_CR(scale_factor));
           }
           BigInteger scaled_int = scaled_CR.get_appr(0);
-          String scaled_string = scaled_int.abs().toString(radix);
+          String scaled_string = bigIntegerToString(scaled_int.abs(), radix);
           String result;
           if (0 == n) {
               result = scaled_string;
@@ -621,6 +1148,297 @@ public volatile static boolean please_stop = false;
       }
 
 
+/**
+* A rough estimate of the work needed to compute <TT>get_appr(precision)</tt>,
+* including the evaluation of any subexpressions.
+* The unit is roughly the time taken by one 32 by 32 bit multiplication
+* inside a large BigInteger multiplication.
+* Approximations that are already cached are free, so this also
+* estimates the additional cost of refining an earlier result.
+* Nothing is evaluated; the estimate relies only on what is already
+* known, and may easily be off by a constant factor of a few.
+* It is meant for deciding whether, and how far, to evaluate.
+*/
+    public long estimateCost(int precision) {
+        return (long)Math.min(plan_cost(precision), (double)Long.MAX_VALUE);
+    }
+
+    // Compute estimateCost(precision).  As a side effect, record in each
+    // node that will need evaluating the precision it will be needed at,
+    // and the estimated cost of evaluating it and its operands, counting
+    // shared operands once per use.
+      double plan_cost(int precision) {
+        return plan_cost(precision, new ArrayList<CR>());
+      }
+
+    // As above, also adding the nodes that will need evaluating to order,
+    // each before its operands.
+      double plan_cost(int precision, ArrayList<CR> order) {
+        // We visit each node once, in topological order, so that the
+        // most precise approximation any parent needs from a node is
+        // known before we look at it.  First count each node's parents.
+        final IdentityHashMap<CR, cost_visitor.node> nodes =
+                new IdentityHashMap<CR, cost_visitor.node>();
+        final ArrayList<CR> ready = new ArrayList<CR>();
+        final cost_visitor v = new cost_visitor(nodes, ready);
+        nodes.put(this, new cost_visitor.node());
+        ready.add(this);
+        while (!ready.isEmpty()) {
+            ready.remove(ready.size() - 1).own_cost(precision, v);
+        }
+        v.counting = false;
+        nodes.get(this).precision = precision;
+        ready.add(this);
+        double result = 0.0;
+        while (!ready.isEmpty()) {
+            final CR x = ready.remove(ready.size() - 1);
+            final cost_visitor.node n = nodes.get(x);
+            final int p = n.precision;
+            final appr_snapshot cache = x.appr_cache;
+            v.needed = p != Integer.MAX_VALUE
+                       && (cache == null || cache.min_prec > p);
+            v.current = n;
+            final double cost = x.own_cost(v.needed ? p : precision, v);
+            if (v.needed) {
+                n.cost = cost;
+                result += cost;
+                order.add(x);
+            }
+        }
+        // Operands follow their parents in order.
+        for (int i = order.size() - 1; i >= 0; --i) {
+            final CR x = order.get(i);
+            final cost_visitor.node n = nodes.get(x);
+            for (cost_visitor.node op : n.ops) {
+                n.cost += op.cost;
+            }
+            x.cost_plan = new cost_plan(n.precision, n.cost);
+        }
+        return result;
+    }
+
+/**
+* The two operands of an addition or multiplication are evaluated
+* concurrently, on a shared pool of threads, if each of them is estimated
+* to cost at least this much, in the units of <TT>estimateCost</tt>.
+* Operands of the built-in nodes that keep state between evaluations,
+* such as those for <TT>PI</tt> and logarithms computed by the AGM,
+* are always evaluated sequentially.
+* The default of <TT>Integer.MAX_VALUE</tt> disables this.
+*/
+public volatile static int parallel_eval_threshold = Integer.MAX_VALUE;
+
+    // The last estimate of the cost of evaluating this node and its
+    // operands, made by plan_cost, and the precision it assumed.
+      static final class cost_plan {
+        final int precision;
+        final double cost;
+        cost_plan(int p, double c) {
+            precision = p;
+            cost = c;
+        }
+      }
+      transient volatile cost_plan cost_plan;
+        // null ==> never planned.
+
+      // Collects the operands reported by CR.own_cost, for CR.estimateCost.
+      // While counting, records each operand, and how many parents it has.
+      // Afterwards, records the most precise approximation needed from each
+      // operand, if the reporting node itself is needed, and makes an operand
+      // ready to be visited once all its parents have been.
+      static final class cost_visitor {
+          static final class node {
+              int parents = 0;
+              int precision = Integer.MAX_VALUE;  // MAX_VALUE ==> not needed.
+              double cost;  // Own cost, later including operands.
+              final ArrayList<node> ops = new ArrayList<node>(2);
+          }
+          private final IdentityHashMap<CR, node> nodes;
+          private final ArrayList<CR> ready;
+          boolean counting = true;
+          boolean needed;
+          node current;  // The node whose operands we are being told about.
+          cost_visitor(IdentityHashMap<CR, node> n, ArrayList<CR> r) {
+              nodes = n;
+              ready = r;
+          }
+          // Record that the current node needs op.get_appr(p).  A p of
+          // Integer.MAX_VALUE reports an operand that isn't needed at the
+          // current precision.
+          void need(CR op, int p) {
+              node n = nodes.get(op);
+              if (counting) {
+                  if (n == null) {
+                      n = new node();
+                      nodes.put(op, n);
+                      ready.add(op);
+                  }
+                  ++n.parents;
+                  return;
+              }
+              if (needed && p != Integer.MAX_VALUE) {
+                  if (p < n.precision) n.precision = p;
+                  current.ops.add(n);
+              }
+              if (--n.parents == 0) ready.add(op);
+          }
+      }
+    // Plans for precisions within this many bits of the one we need
+    // are close enough.
+      static final int plan_tolerance = 64;
+
+    // The planned cost of get_appr(p), 0 if that is cached, or -1 if
+    // there is no plan for a precision within tolerance bits of p.
+      double planned_cost(int p, int tolerance) {
+        final appr_snapshot cache = appr_cache;
+        if (cache != null && cache.min_prec <= p) return 0.0;
+        final cost_plan plan = cost_plan;
+        if (plan == null) return -1.0;
+        if (Math.abs((long)plan.precision - p) > tolerance) return -1.0;
+        return plan.cost;
+      }
+
+    // Should approximate(p) compute op1.get_appr(p1) and op2.get_appr(p2)
+    // concurrently?  Only if both are expected to be expensive enough to
+    // outweigh the overhead.  We plan costs for a whole subexpression at
+    // once, so that its nodes can usually decide without looking at
+    // their operands.
+      boolean fork_operands(int p, CR op1, int p1, CR op2, int p2) {
+        final int threshold = parallel_eval_threshold;
+        if (threshold == Integer.MAX_VALUE || op1 == op2) return false;
+        if (holding_lock()) return false;
+        final double own = planned_cost(p, plan_tolerance);
+        if (own >= 0.0 && own < 2.0 * threshold) return false;
+        double cost1 = op1.planned_cost(p1, plan_tolerance);
+        double cost2 = op2.planned_cost(p2, plan_tolerance);
+        if (cost1 < 0.0 || cost2 < 0.0) {
+            if (plan_cost(p) < 2.0 * threshold) return false;
+            // Our guess at p1 or p2 may have been off.  Use the plan anyway.
+            cost1 = op1.planned_cost(p1, Integer.MAX_VALUE);
+            cost2 = op2.planned_cost(p2, Integer.MAX_VALUE);
+        }
+        return cost1 >= threshold && cost2 >= threshold;
+      }
+
+    // Return {op1.get_appr(p1), op2.get_appr(p2)}, computing the second
+    // on the fork-join pool while this thread computes the first.
+      static BigInteger[] get_apprs(CR op1, int p1, CR op2, int p2) {
+        final ForkJoinTask<BigInteger> task = appr_task(op2, p2);
+        if (ForkJoinTask.inForkJoinPool()) {
+            task.fork();
+        } else {
+            fork_join_pool().execute(task);
+        }
+        final BigInteger appr1;
+        try {
+            appr1 = op1.get_appr(p1);
+        } catch (RuntimeException e) {
+            // Let the task finish.  Its result is cached, and a retry
+            // will want it.
+            task.quietlyJoin();
+            throw e;
+        }
+        return new BigInteger[] { appr1, task.join() };
+      }
+
+    // x.get_appr(p), for a node that evaluates x while holding its own
+    // lock, such as the synchronized approximate() of a node that keeps
+    // state between calls.  We don't fork while the current thread holds
+    // such a lock, since the forking thread blocks in join(), and the
+    // forked task may need the same lock.  Threads that wait for one of
+    // these locks then never wait for a thread that waits for them.
+    // Locks are acquired from the top of the expression down, so
+    // they can't deadlock among themselves.
+      static BigInteger locked_appr(CR x, int p) {
+        final eval_depth depth = current_depth.get();
+        ++depth.locks_held;
+        try {
+            return x.get_appr(p);
+        } finally {
+            --depth.locks_held;
+        }
+      }
+
+    // Does the current thread hold a lock, as described for locked_appr?
+      static boolean holding_lock() {
+        return current_depth.get().locks_held > 0;
+      }
+
+    // A task computing op.get_appr(p), which inherits the current thread's
+    // cancellation token.  It keeps the evaluation depth of the thread that
+    // runs it.  A worker that runs it while waiting for another task, or
+    // the forking thread itself, continues counting from the depth of the
+    // evaluation in progress, so the stack stays bounded.  A resulting
+    // deferred_appr reaches the forking thread through join(), and
+    // its path describes the retries needed wherever it was thrown.
+      private static ForkJoinTask<BigInteger> appr_task(final CR op,
+                                                        final int p) {
+        final CancellationToken token = getCancellationToken();
+        return new RecursiveTask<BigInteger>() {
+            protected BigInteger compute() {
+                final CancellationToken previous = setCancellationToken(token);
+                try {
+                    return op.get_appr(p);
+                } finally {
+                    setCancellationToken(previous);
+                }
+            }
+        };
+      }
+
+    // Return the cost, in the units of estimateCost, of approximate(p)
+    // itself, excluding the evaluation of operands.  Report each operand
+    // it evaluates, with the precision it needs, to v.need().  The same
+    // operands must be reported for every p.
+    // The default is for nodes we know nothing about, such as
+    // subclasses outside this package.  They may evaluate operands we
+    // can't see.  To err on the high side, we charge about as much as
+    // a series with a term per word of precision, like those for exp
+    // and ln.
+      double own_cost(int p, cost_visitor v) {
+        return linear_cost(-p) * mul_cost(-p);
+      }
+
+    // Building blocks for own_cost.
+    // The cost of multiplying two numbers of the given number of bits.
+    // BigInteger switches from schoolbook multiplication to Karatsuba at
+    // 80 words, and later to Toom-Cook, which we treat like Karatsuba.
+      static double mul_cost(int bits) {
+        final double words = Math.max(bits, 0) / 32.0 + 1.0;
+        if (words <= 80.0) return words * words;
+        return 6400.0 * Math.pow(words / 80.0, 1.585);
+      }
+    // The cost of an addition, shift, or division by a small integer.
+      static double linear_cost(int bits) {
+        return Math.max(bits, 0) / 32.0 + 1.0;
+      }
+    // The msd, if a cached approximation tells us, else the msd hint,
+    // else 0.  A rough guess, for estimating the precision needed by
+    // multiplications.
+      int cached_msd() {
+        final appr_snapshot cache = appr_cache;
+        if (cache == null || cache.max_appr.signum() == 0) {
+            return msd_hint == no_msd_hint ? 0 : msd_hint;
+        }
+        return cache.min_prec + cache.max_appr.abs().bitLength() - 1;
+      }
+    // Building blocks for msd_hint.
+    // The hint for a product, or for a value scaled by 2**count.
+      static int product_hint(int hint1, int hint2) {
+        if (hint1 == no_msd_hint || hint2 == no_msd_hint) return no_msd_hint;
+        long sum = (long)hint1 + (long)hint2;
+        // Keep far enough from overflow that hint arithmetic is safe.
+        if (sum > max_hint) return max_hint;
+        if (sum < -max_hint) return -max_hint;
+        return (int)sum;
+      }
+      static final int max_hint = 1 << 26;
+    // The hint for a sum, assuming no cancellation.
+      static int sum_hint(int hint1, int hint2) {
+        if (hint1 == no_msd_hint || hint2 == no_msd_hint) return no_msd_hint;
+        return Math.max(hint1, hint2);
+      }
+
 /**
 * Equivalent to <TT>toString(n,10)</tt>
 *
@@ -677,14 +1495,14 @@ public volatile static boolean please_stop = false;
         CR scaled_res = multiply(scale);
         BigInteger scaled_int = scaled_res.get_appr(0);
         int sign = scaled_int.signum();
-        String scaled_string = scaled_int.abs().toString(radix);
+        String scaled_string = bigIntegerToString(scaled_int.abs(), radix);
         while (scaled_string.length() < n) {
             // exponent was too large.  Adjust.
             scaled_res = scaled_res.multiply(CR.valueOf(big_radix));
             exponent -= 1;
             scaled_int = scaled_res.get_appr(0);
             sign = scaled_int.signum();
-            scaled_string = scaled_int.abs().toString(radix);
+            scaled_string = bigIntegerToString(scaled_int.abs(), radix);
         }
         if (scaled_string.length() > n) {
             // exponent was too small.  Adjust by truncating.
@@ -882,7 +1700,9 @@ public volatile static boolean please_stop = false;
         BigInteger rough_appr = get_appr(low_prec);
         // Handle negative arguments directly; negating and computing inverse
         // can be very expensive.
-        if (rough_appr.compareTo(big2) > 0 || rough_appr.compareTo(bigm2) < 0) {
+        // Prescaled_exp_CR performs its own, much finer, argument reduction,
+        // so we only need to get the argument below one here.
+        if (rough_appr.abs().compareTo(big1.shiftLeft(-low_prec)) >= 0) {
             CR square_root = shiftRight(1).exp();
             return square_root.multiply(square_root);
         } else {
@@ -890,10 +1710,100 @@ public volatile static boolean please_stop = false;
         }
     }
 
+    // Largest numerator + denominator size, in bits, for which we use
+    // binary splitting to compute the exponential of a rational.
+    // Binary splitting intermediate results grow with the size of the
+    // argument, so it only pays for short rationals.
+    static final int max_rational_exp_bits = 64;
+
+/**
+* The exponential function of the rational number <TT>n/d</tt>.
+* Equivalent to <TT>CR.valueOf(n).divide(CR.valueOf(d)).exp()</tt>, but
+* uses binary splitting to sum the Taylor series when <TT>n</tt> and
+* <TT>d</tt> are small.  That is much faster at high precision.
+*/
+    public static CR rationalExp(BigInteger n, BigInteger d) {
+        if (d.signum() == 0) {
+            throw new ArithmeticException("Division by zero");
+        }
+        if (d.signum() < 0) {
+            n = n.negate();
+            d = d.negate();
+        }
+        if (n.bitLength() + d.bitLength() > max_rational_exp_bits) {
+            return valueOf(n).divide(valueOf(d)).exp();
+        }
+        if (n.abs().compareTo(d) > 0) {
+            CR square_root = rationalExp(n, d.shiftLeft(1));
+            return square_root.multiply(square_root);
+        } else {
+            return new rational_exp_CR(n, d);
+        }
+    }
+
+    // Largest numerator + denominator size, in bits, for which we use
+    // binary splitting to compute the arctangent of a rational.
+    static final int max_rational_atan_bits = 64;
+
+    // Bound on n/d, scaled by 2^10, below which we sum the series for
+    // atan(n/d) directly.  Slightly above sqrt(2) - 1, so that
+    // reductions never fail to get there.
+    static final BigInteger rational_atan_limit = BigInteger.valueOf(425);
+
+/**
+* The arctangent of the rational number <TT>n/d</tt>.
+* Equivalent to <TT>CR.valueOf(n).divide(CR.valueOf(d)).atan()</tt>, but
+* uses binary splitting to sum the series when <TT>n</tt> and
+* <TT>d</tt> are small.  That is much faster at high precision.
+*/
+    public static CR rationalAtan(BigInteger n, BigInteger d) {
+        if (d.signum() == 0) {
+            throw new ArithmeticException("Division by zero");
+        }
+        if (d.signum() < 0) {
+            n = n.negate();
+            d = d.negate();
+        }
+        if (n.bitLength() + d.bitLength() > max_rational_atan_bits) {
+            return valueOf(n).divide(valueOf(d)).atan();
+        }
+        if (n.signum() < 0) {
+            return rationalAtan(n.negate(), d).negate();
+        }
+        if (n.compareTo(d) > 0) {
+            // atan(n/d) = pi/2 - atan(d/n)
+            return half_pi.subtract(rationalAtan(d, n));
+        }
+        if (n.shiftLeft(10).compareTo(d.multiply(rational_atan_limit)) > 0) {
+            // atan(n/d) = pi/4 - atan((d-n)/(d+n)).  Since
+            // n/d > 0.41, (d-n)/(d+n) < 0.42.
+            return PI.shiftRight(2).subtract(rationalAtan(d.subtract(n), d.add(n)));
+        }
+        return new rational_atan_CR(n, d);
+    }
+
 /**
 * The ratio of a circle's circumference to its diameter.
 */
-    public static CR PI = new gl_pi_CR();
+    public static CR PI = protect(new chudnovsky_pi_CR());
+
+/**
+* Save the most precise approximation to <TT>PI</tt> computed so far in
+* the named file, and reuse one previously saved there, if any.
+* Intended to be given a file in private storage, so that later
+* high precision computations involving <TT>PI</tt> are nearly free.
+* The file is rewritten in the background, and only once the precision
+* has doubled since it was last written.
+* A null argument stops further saving.
+* @param f      File to hold the cached approximation.
+*/
+    public static void setPiCacheFile(File f) {
+        chudnovsky_pi_CR.cache_file = f;
+    }
+
+    // The Gauss-Legendre implementation that preceded the Chudnovsky one.
+    // Also kept around to allow checking.
+    public static CR gl_PI = new gl_pi_CR();
 
     // Our old PI implementation. Keep this around for now to allow checking.
     // This implementation may also be faster for BigInteger implementations
@@ -905,7 +1815,24 @@ public volatile static boolean please_stop = false;
     public static CR atan_PI = four.multiply(four.multiply(atan_reciprocal(5))
                                             .subtract(atan_reciprocal(239)));
         // pi/4 = 4*atan(1/5) - atan(1/239)
-    static CR half_pi = PI.shiftRight(1);
+    static CR half_pi = protect(PI.shiftRight(1));
+
+    // The series underlying cos(), exp() and ln(), without argument
+    // reduction, for UnaryCRFunction.executeAll, which reduces
+    // arguments itself.
+    // cos(x) scaled by 2**-p, for abs(x) < 2.
+    // Off by < 2**(p-3) before scaling, like prescaled_cos_CR.sin_cos.
+    static BigInteger prescaled_cos_appr(CR x, int p) {
+        return prescaled_cos_CR.sin_cos(x, p, false)[0];
+    }
+    // exp(x), for abs(x) < 1.
+    static CR prescaled_exp(CR x) {
+        return new prescaled_exp_CR(x);
+    }
+    // ln(1 + x), for abs(x) < 1/2.
+    static CR prescaled_ln(CR x) {
+        return new prescaled_ln_CR(x);
+    }
 
 /**
 * The trigonometric cosine function.
@@ -931,6 +1858,45 @@ public volatile static boolean please_stop = false;
         }
     }
 
+/**
+* The trigonometric tangent function.
+* Shares a single argument reduction and series evaluation between the
+* sine and cosine it is computed from.
+*/
+    public CR tan() {
+        BigInteger eighth_pi_multiples = divide(PI).get_appr(-3);
+        BigInteger pi_multiples = scale(eighth_pi_multiples, -3);
+        CR reduced = this;
+        if (pi_multiples.signum() != 0) {
+            // tan has period pi.
+            reduced = subtract(PI.multiply(CR.valueOf(pi_multiples)));
+        }
+        // abs(reduced) < 5/8 pi < 2
+        return new prescaled_tan_CR(reduced);
+    }
+
+/**
+* The trigonometric arc (inverse) tangent function.
+*/
+    public CR atan() {
+        BigInteger rough_appr = get_appr(-7);
+        if (rough_appr.abs().compareTo(big184) > 0) {
+            // abs(this) > 183/128.  atan(x) = +-pi/2 - atan(1/x).
+            CR quarter_turn = (rough_appr.signum() > 0 ? half_pi
+                                                        : half_pi.negate());
+            return quarter_turn.subtract(inverse().atan());
+        } else if (rough_appr.abs().compareTo(big1) > 0) {
+            // abs(this) > 1/128.  Halve the result, using
+            // atan(x) = 2 atan(x/(1 + sqrt(1 + x^2))).
+            // Each halving is cheaper than the series terms it saves.
+            CR reduced = divide(ONE.add(ONE.add(multiply(this)).sqrt()));
+            return reduced.atan().shiftLeft(1);
+        } else {
+            // abs(this) < 1/64
+            return new prescaled_atan_CR(this);
+        }
+    }
+
 /**
 * The trigonometric sine function.
 */
@@ -942,15 +1908,13 @@ public volatile static boolean please_stop = false;
 * The trignonometric arc (inverse) sine function.
 */
     public CR asin() {
-        BigInteger rough_appr = get_appr(-10);
-        if (rough_appr.compareTo(big750) /* 1/sqrt(2) + a bit */ > 0){
-            CR new_arg = ONE.subtract(multiply(this)).sqrt();
-            return new_arg.acos();
-        } else if (rough_appr.compareTo(bigm750) < 0) {
-            return negate().asin().negate();
-        } else {
-            return new prescaled_asin_CR(this);
-        }
+        // asin(x) = 2 atan(x/(1 + sqrt(1 - x^2))).  The atan argument
+        // stays in [-1, 1], even at x = +-1, where the more obvious
+        // atan(x/sqrt(1 - x^2)) would divide by zero.  1 - x^2 is
+        // computed as (1 - x)(1 + x), which keeps its relative accuracy
+        // near +-1.
+        CR cos_asin = ONE.subtract(this).multiply(ONE.add(this)).sqrt();
+        return divide(ONE.add(cos_asin)).atan().shiftLeft(1);
     }
 
 /**
@@ -998,6 +1962,31 @@ public volatile static boolean please_stop = false;
         return new sqrt_CR(this);
     }
 
+/**
+* The <TT>n</tt>th root of a constructive real, for <TT>n</tt> &gt;= 2.
+* For odd <TT>n</tt>, the root of a negative number is negative.
+* Computed by Newton iteration, like <TT>sqrt</tt>, and thus much
+* faster than <TT>ln().divide(valueOf(n)).exp()</tt> for small <TT>n</tt>.
+*/
+    public CR nthRoot(int n) {
+        if (n < 2) throw new ArithmeticException("Bad nthRoot degree");
+        if (n == 2) return new sqrt_CR(this);
+        return new nthroot_CR(this, n);
+    }
+
+/**
+* The <TT>n</tt>th power of a constructive real, for an integer <TT>n</tt>.
+* Computed by repeated squaring of approximations, rather than by a tree
+* of <TT>multiply</tt> nodes, so large exponents remain cheap.
+* Unlike <TT>ln().multiply(..).exp()</tt>, this works for negative numbers.
+*/
+    public CR pow(BigInteger n) {
+        if (n.signum() == 0) return ONE;
+        if (n.signum() < 0) return pow(n.negate()).inverse();
+        if (n.equals(big1)) return this;
+        return new pow_CR(this, n);
+    }
+
 }  // end of CR
 
 
@@ -1014,41 +2003,180 @@ public volatile static boolean please_stop = false;
 abstract class slow_CR extends CR {
     static int max_prec = -64;
     static int prec_incr = 32;
-    public synchronized BigInteger get_appr(int precision) {
-        check_prec(precision);
-        if (appr_valid && precision >= min_prec) {
-            return scale(max_appr, min_prec - precision);
-        } else {
-            int eval_prec = (precision >= max_prec? max_prec :
-                             (precision - prec_incr + 1) & ~(prec_incr - 1));
-            BigInteger result = approximate(eval_prec);
-            min_prec = eval_prec;
-            max_appr = result;
-            appr_valid = true;
-            return scale(result, eval_prec - precision);
-        }
+    BigInteger compute_appr(int precision) {
+        int eval_prec = (precision >= max_prec? max_prec :
+                         (precision - prec_incr + 1) & ~(prec_incr - 1));
+        BigInteger result = approximate(eval_prec);
+        update_appr(eval_prec, result);
+        return scale(result, eval_prec - precision);
     }
 }
 
-
-// Representation of an integer constant.  Private.
-class int_CR extends CR {
-    BigInteger value;
-    int_CR(BigInteger n) {
-        value = n;
+// Keeps the memory occupied by large cached approximations, and by the
+// series state kept across approximations, to roughly
+// CR.appr_cache_budget bits.  When the total exceeds that, we release
+// the least recently used unprotected ones.  Smaller caches are not
+// worth tracking.  Entries are accessed only while holding the class
+// lock, except for clock and last_use, which need only order uses
+// roughly.  Entries are released after dropping the lock, since that
+// may need the lock of a split_series.
+final class cache_budget {
+    static final int min_tracked_bits = 1 << 14;
+    static final int truncated_bits = 64;
+    static int clock = 0;  // Advanced whenever we add an entry.
+    abstract static class entry extends WeakReference<Object> {
+        final long bits;
+        int last_use = clock;
+        entry(Object referent, long b) {
+            super(referent, queue);
+            bits = b;
+        }
+        // Is the referent exempt from eviction?
+        abstract boolean is_protected();
+        // Discard most of the referent's data, if it is still current.
+        abstract void release();
     }
-    protected BigInteger approximate(int p) {
-        return scale(value, -p) ;
+    // An approximation cached by owner.
+    static final class appr_entry extends entry {
+        final WeakReference<CR> owner;
+        appr_entry(CR o, CR.appr_snapshot s) {
+            super(s, s.max_appr.bitLength());
+            owner = new WeakReference<CR>(o);
+        }
+        boolean is_protected() {
+            final CR o = owner.get();
+            return o == null || o.protect_count > 0;
+        }
+        void release() {
+            final CR o = owner.get();
+            final Object s = get();
+            if (o != null && s != null) o.truncate_appr((CR.appr_snapshot)s);
+        }
+    }
+    // The partial sum retained by a split_series.
+    static final class series_entry extends entry {
+        series_entry(split_series s, long b) {
+            super(s, b);
+        }
+        boolean is_protected() {
+            final split_series s = (split_series)get();
+            return s == null || s.is_protected;
+        }
+        void release() {
+            final split_series s = (split_series)get();
+            if (s != null) s.release(this);
+        }
+    }
+    private static final ReferenceQueue<Object> queue =
+            new ReferenceQueue<Object>();
+    private static final HashSet<entry> entries = new HashSet<entry>();
+    private static long total_bits = 0;
+
+    // Start accounting for e.  Release others if we are over budget.
+    static void add(entry e) {
+        final ArrayList<entry> victims;
+        synchronized (cache_budget.class) {
+            Reference<?> r;
+            while ((r = queue.poll()) != null) {
+                // Collected along with its owner.
+                if (entries.remove(r)) total_bits -= ((entry)r).bits;
+            }
+            entries.add(e);
+            total_bits += e.bits;
+            ++clock;
+            final long budget = CR.appr_cache_budget;
+            if (total_bits <= budget) return;
+            victims = victims(e, budget - budget / 4);
+        }
+        for (entry v : victims) v.release();
     }
-}
 
-// Representation of a number that may not have been completely
-// evaluated, but is assumed to be an integer.  Hence we never
+    // Stop accounting for e, since its referent has been replaced.
+    static synchronized void remove(entry e) {
+        if (entries.remove(e)) total_bits -= e.bits;
+    }
+
+    // Remove the least recently used unprotected entries other than keep,
+    // until we get down to target, and return them.  We go well below the
+    // budget, so that we don't do this for every new entry.
+    private static ArrayList<entry> victims(entry keep, long target) {
+        final ArrayList<entry> candidates = new ArrayList<entry>();
+        for (entry e : entries) {
+            if (e != keep && e.get() != null && !e.is_protected()) {
+                candidates.add(e);
+            }
+        }
+        Collections.sort(candidates, new Comparator<entry>() {
+            public int compare(entry a, entry b) {
+                return a.last_use < b.last_use ? -1
+                       : a.last_use == b.last_use ? 0 : 1;
+            }
+        });
+        final ArrayList<entry> result = new ArrayList<entry>();
+        for (entry e : candidates) {
+            if (total_bits <= target) break;
+            entries.remove(e);
+            total_bits -= e.bits;
+            result.add(e);
+        }
+        return result;
+    }
+}
+
+// An approximation still to be computed by CR.schedule_appr.  Private.
+class pending_appr {
+    final CR node;
+    final int precision;
+    int deferrals = 0;  // Number of times this had to wait for another.
+    pending_appr(CR x, int p) {
+        node = x;
+        precision = p;
+    }
+}
+
+// Thrown by get_appr when it could not compute an approximation without
+// nesting too deeply.  The get_appr calls it passes through add
+// themselves to path, so that CR.schedule_appr can resume each of
+// them in turn.  Private.
+class deferred_appr extends RuntimeException {
+    final transient ArrayList<pending_appr> path = new ArrayList<pending_appr>();
+    deferred_appr(pending_appr needed) {
+        path.add(needed);
+    }
+    // Thrown often enough that recording the stack would be expensive,
+    // and we never look at it.
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
+
+
+// Representation of an integer constant.  Private.
+class int_CR extends CR {
+    BigInteger value;
+    int_CR(BigInteger n) {
+        value = n;
+        if (n.signum() != 0) {
+            msd_hint = Math.min(n.abs().bitLength() - 1, max_hint);
+        }
+    }
+    protected BigInteger approximate(int p) {
+        return scale(value, -p) ;
+    }
+    double own_cost(int p, cost_visitor v) {
+        return linear_cost(value.bitLength() - p);
+    }
+}
+
+// Representation of a number that may not have been completely
+// evaluated, but is assumed to be an integer.  Hence we never
 // evaluate beyond the decimal point.
 class assumed_int_CR extends CR {
     CR value;
     assumed_int_CR(CR x) {
         value = x;
+        msd_hint = x.msd_hint;
     }
     protected BigInteger approximate(int p) {
         if (p >= 0) {
@@ -1057,6 +2185,10 @@ class assumed_int_CR extends CR {
             return scale(value.get_appr(0), -p) ;
         }
     }
+    double own_cost(int p, cost_visitor v) {
+        v.need(value, Math.max(p, 0));
+        return linear_cost(-p);
+    }
 }
 
 // Representation of the sum of 2 constructive reals.  Private.
@@ -1066,13 +2198,23 @@ class add_CR extends CR {
     add_CR(CR x, CR y) {
         op1 = x;
         op2 = y;
+        msd_hint = sum_hint(x.msd_hint, y.msd_hint);
     }
     protected BigInteger approximate(int p) {
         // Args need to be evaluated so that each error is < 1/4 ulp.
         // Rounding error from the cale call is <= 1/2 ulp, so that
         // final error is < 1 ulp.
+        if (fork_operands(p, op1, p-2, op2, p-2)) {
+            BigInteger[] apprs = get_apprs(op1, p-2, op2, p-2);
+            return scale(apprs[0].add(apprs[1]), -2);
+        }
         return scale(op1.get_appr(p-2).add(op2.get_appr(p-2)), -2);
     }
+    double own_cost(int p, cost_visitor v) {
+        v.need(op1, p-2);
+        v.need(op2, p-2);
+        return linear_cost(op1.cached_msd() - p);
+    }
 }
 
 // Representation of a CR multiplied by 2**n
@@ -1082,10 +2224,15 @@ class shifted_CR extends CR {
     shifted_CR(CR x, int n) {
         op = x;
         count = n;
+        msd_hint = product_hint(x.msd_hint, n);
     }
     protected BigInteger approximate(int p) {
         return op.get_appr(p - count);
     }
+    double own_cost(int p, cost_visitor v) {
+        v.need(op, p - count);
+        return 0.0;
+    }
 }
 
 // Representation of the negation of a constructive real.  Private.
@@ -1093,10 +2240,15 @@ class neg_CR extends CR {
     CR op;
     neg_CR(CR x) {
         op = x;
+        msd_hint = x.msd_hint;
     }
     protected BigInteger approximate(int p) {
         return op.get_appr(p).negate();
     }
+    double own_cost(int p, cost_visitor v) {
+        v.need(op, p);
+        return linear_cost(op.cached_msd() - p);
+    }
 }
 
 // Representation of:
@@ -1113,6 +2265,7 @@ class select_CR extends CR {
         int selector_sign = selector.get_appr(-20).signum();
         op1 = x;
         op2 = y;
+        msd_hint = sum_hint(x.msd_hint, y.msd_hint);
     }
     protected BigInteger approximate(int p) {
         if (selector_sign < 0) return op1.get_appr(p);
@@ -1134,6 +2287,11 @@ class select_CR extends CR {
             return scale(op2_appr, -1);
         }
     }
+    double own_cost(int p, cost_visitor v) {
+        v.need(op1, p-1);
+        v.need(op2, p-1);
+        return linear_cost(op1.cached_msd() - p);
+    }
 }
 
 // Representation of the product of 2 constructive reals. Private.
@@ -1143,8 +2301,13 @@ class mult_CR extends CR {
     mult_CR(CR x, CR y) {
         op1 = x;
         op2 = y;
+        msd_hint = product_hint(x.msd_hint, y.msd_hint);
     }
     protected BigInteger approximate(int p) {
+        // Local copies, since we may swap them, and other threads
+        // may be evaluating this concurrently.
+        CR op1 = this.op1;
+        CR op2 = this.op2;
         int half_prec = (p >> 1) - 1;
         int msd_op1 = op1.msd(half_prec);
         int msd_op2;
@@ -1172,6 +2335,16 @@ class mult_CR extends CR {
                 // Thus each approximation contributes 1/4 ulp
                 // to the rounding error, and the final rounding adds
                 // another 1/2 ulp.
+        if (fork_operands(p, op1, p - op2.cached_msd() - 3, op2, prec2)) {
+            // We need op2's msd before evaluating op1 concurrently.
+            // The hint usually makes that cheap.
+            msd_op2 = op2.msd(half_prec);
+            if (msd_op2 != Integer.MIN_VALUE) {
+                int prec1 = p - msd_op2 - 3;
+                BigInteger[] apprs = get_apprs(op1, prec1, op2, prec2);
+                return scale(apprs[0].multiply(apprs[1]), prec1 + prec2 - p);
+            }
+        }
         BigInteger appr2 = op2.get_appr(prec2);
         if (appr2.signum() == 0) return big0;
         msd_op2 = op2.known_msd();
@@ -1180,16 +2353,59 @@ class mult_CR extends CR {
         int scale_digits =  prec1 + prec2 - p;
         return scale(appr1.multiply(appr2), scale_digits);
     }
+    double own_cost(int p, cost_visitor v) {
+        final int msd1 = op1.cached_msd();
+        final int msd2 = op2.cached_msd();
+        v.need(op1, p - msd2 - 3);
+        v.need(op2, p - msd1 - 3);
+        return mul_cost(msd1 + msd2 - p);
+    }
 }
 
 // Representation of the multiplicative inverse of a constructive
-// real.  Private.  Should use Newton iteration to refine estimates.
+// real.  Private.  Uses Newton iteration to refine estimates.
 class inv_CR extends CR {
     CR op;
-    inv_CR(CR x) { op = x; }
+    inv_CR(CR x) {
+        op = x;
+        if (x.msd_hint != no_msd_hint) msd_hint = -x.msd_hint;
+    }
+    // Number of significant bits below which we just divide.
+    // BigInteger division is cheap for small operands, and that
+    // also bottoms out the Newton iteration below.
+    static final int newton_threshold = 1000;
     protected BigInteger approximate(int p) {
         int msd = op.msd();
         int inv_msd = 1 - msd;
+        int result_digits = inv_msd - p;
+        if (result_digits > newton_threshold) {
+            // Compute less precise approximation y0 and use a Newton iter.:
+            //      y1 = y0 + y0 * (1 - x * y0)
+            // Then 1/x - y1 = x * (1/x - y0)**2, i.e. the number of
+            // correct bits roughly doubles.  If a previous call computed
+            // y0, or even a more precise approximation, we get it from
+            // the cache, and thus pay only for the final iteration.
+            int appr_digits = result_digits/2 + 6;
+            int appr_prec = inv_msd - appr_digits;
+            // |1/x| < 2**inv_msd, |x| < 2**(msd+1), and |1/x - y0| <
+            // 2**appr_prec.  Thus the quadratic error term is
+            // < 2**(msd + 1 + 2*appr_prec) <= 2**(p-9).
+            // |y0| < 2**(inv_msd+1).  Hence an error in x of
+            // 2**op_prec contributes an error of less than
+            // 2**(op_prec + 2*inv_msd + 2) = 2**(p-6).
+            // The final rounding adds another 1/2 ulp.
+            int op_prec = p - 2*inv_msd - 8;
+            BigInteger last_appr = get_appr(appr_prec);
+            BigInteger op_appr = op.get_appr(op_prec);
+            int prod_prec = op_prec + appr_prec;
+            // 1 - x * y0, scaled by 2**prod_prec.  Exact.
+            BigInteger residual = big1.shiftLeft(-prod_prec).subtract(
+                                        op_appr.multiply(last_appr));
+            // y1, scaled by 2**(prod_prec + appr_prec)
+            BigInteger scaled_result = last_appr.shiftLeft(-prod_prec).add(
+                                        last_appr.multiply(residual));
+            return scale(scaled_result, prod_prec + appr_prec - p);
+        }
         int digits_needed = inv_msd - p + 3;
                                 // Number of SIGNIFICANT digits needed for
                                 // argument, excl. msd position, which may
@@ -1220,147 +2436,810 @@ class inv_CR extends CR {
           return result;
         }
     }
+    double own_cost(int p, cost_visitor v) {
+        final int inv_msd = 1 - op.cached_msd();
+        final int result_digits = inv_msd - p;
+        v.need(op, p - 2*inv_msd - 8);
+        // The Newton iterations together cost about twice as much as
+        // the last one, with its two multiplications.  A division
+        // costs a few multiplications.
+        if (result_digits > newton_threshold) {
+            return 4.0 * mul_cost(result_digits);
+        }
+        return 3.0 * mul_cost(result_digits);
+    }
 }
 
 
 // Representation of the exponential of a constructive real.  Private.
-// Uses a Taylor series expansion.  Assumes |x| < 1/2.
+// Uses a Taylor series expansion of exp(x/2**k), followed by k squarings.
+// Choosing k to be roughly sqrt(-p) balances the number of series terms
+// against the number of squarings, so that we need only O(sqrt(-p))
+// full precision multiplications, instead of O(-p).
+// Assumes |x| < 2.
 // Note: this is known to be a bad algorithm for
 // floating point.  Unfortunately, other alternatives
 // appear to require precomputed information.
 class prescaled_exp_CR extends CR {
     CR op;
-    prescaled_exp_CR(CR x) { op = x; }
+    prescaled_exp_CR(CR x) {
+        op = x;
+        msd_hint = 0;   // |x| < 2, so the result is within a factor of 8 of 1.
+    }
+    // Number of times we halve the argument before summing the series.
+    // At least 2, so that the reduced argument is < 1/2.
+    static int halvings(int p) {
+        int k = (int)Math.sqrt((double)-p) / 2;
+        return (k < 2? 2 : k);
+    }
     protected BigInteger approximate(int p) {
-        if (p >= 1) return big0;
-        int iterations_needed = -p/2 + 2;  // conservative estimate > 0.
+        if (p >= 3) return big0;  // |result| < e**2 < 8
+        int k = halvings(p);
+        int iterations_needed = (k - p + 64)/(k - 1) + 2;
+          // conservative estimate > 0.  The reduced argument r = x/2**k
+          // is < 2**(1-k), so each term is smaller than the last by at
+          // least that factor.
           //  Claim: each intermediate term is accurate
           //  to 2*2^calc_precision.
           //  Total rounding error in series computation is
           //  2*iterations_needed*2^calc_precision,
           //  exclusive of error in op.
-        int calc_precision = p - bound_log2(2*iterations_needed)
-                               - 4; // for error in op, truncation.
-        int op_prec = p - 3;
+        int calc_precision = p - k - bound_log2(2*iterations_needed)
+                               - 8; // for error in op, truncation, squaring.
+        int op_prec = p - 6;
         BigInteger op_appr = op.get_appr(op_prec);
-          // Error in argument results in error of < 3/8 ulp.
-          // Sum of term eval. rounding error is < 1/16 ulp.
-          // Series truncation error < 1/16 ulp.
+          // Error in argument results in error of < 8/64 ulp, since the
+          // derivative is < e**2.
+          // Sum of term eval. rounding error and series truncation error
+          // is < 2**(p-k-7).  Each squaring at most doubles that, times
+          // the current value, and the product of those values is < e**2.
+          // Thus the error after squaring is < 8*2**(p-7) = 1/16 ulp,
+          // plus negligible rounding error from the squarings themselves.
           // Final rounding error is <= 1/2 ulp.
           // Thus final error is < 1 ulp.
         BigInteger scaled_1 = big1.shiftLeft(-calc_precision);
         BigInteger current_term = scaled_1;
         BigInteger current_sum = scaled_1;
         int n = 0;
-        BigInteger max_trunc_error =
-                big1.shiftLeft(p - 4 - calc_precision);
-        while (current_term.abs().compareTo(max_trunc_error) >= 0) {
-          if (Thread.interrupted() || please_stop) throw new AbortedException();
+        int term_prec = op_prec - k;  // Scaling of op_appr as approx. to r.
+        while (current_term.abs().compareTo(big1) >= 0) {
+          checkAborted();
           n += 1;
-          /* current_term = current_term * op / n */
-          current_term = scale(current_term.multiply(op_appr), op_prec);
+          /* current_term = current_term * r / n */
+          current_term = scale(current_term.multiply(op_appr), term_prec);
           current_term = current_term.divide(BigInteger.valueOf(n));
           current_sum = current_sum.add(current_term);
         }
+        for (int i = 0; i < k; ++i) {
+          checkAborted();
+          current_sum = scale(current_sum.multiply(current_sum), calc_precision);
+        }
         return scale(current_sum, calc_precision - p);
     }
+    double own_cost(int p, cost_visitor v) {
+        v.need(op, p - 6);
+        if (p >= 3) return 0.0;
+        final int k = halvings(p);
+        final int terms = (k - p + 64)/(k - 1) + 2;
+        return (terms + k) * mul_cost(k - p) + terms * linear_cost(k - p);
+    }
+}
+
+// The exact sum of the leading terms of a series that is evaluated by
+// binary splitting.  Private.
+// Rather than computing each term to full precision, we compute the
+// exact sum of terms first .. b-1 as a fraction T/Q, by recursively
+// combining the sums of the two halves of the index range.  This
+// performs most of the work on numbers much smaller than the final
+// result, and the rest in a few large multiplications, which benefit
+// from sub-quadratic BigInteger multiplication.
+// Since the sum is exact, it remains valid when more precision is
+// requested later, and we only need to sum the additional terms.
+// Extensions are done in chunks at least as long as what we already
+// have, so that the total work stays close to that of a single split,
+// but an evaluation that is aborted part way keeps the completed chunks.
+abstract class split_series {
+    private static final int min_chunk = 16;
+    private final int first;
+    private int end;  // We've summed terms first .. end-1.
+    private BigInteger[] pqt;  // {P, Q, T} for those, or null.
+    private cache_budget.entry entry;  // Accounts for pqt, or null.
+    volatile boolean is_protected = false;  // Exempt from cache_budget.
+    split_series(int first_term) {
+        first = first_term;
+        end = first_term;
+    }
+    // Return {P, Q, T} for the single term with index a.  The term is
+    // P/Q times the preceding one, and T/Q times the product of the
+    // ratios of the terms before it.  Typically T = P.
+    abstract BigInteger[] term(int a);
+    // Compute {P, Q, T} for the terms with indices in [a, b), where P
+    // and Q are the products of the term ratio numerators and
+    // denominators over the whole range, and the sum of the terms,
+    // relative to the one preceding a, is T/Q.
+    BigInteger[] split(int a, int b) {
+        if (b - a == 1) {
+            return term(a);
+        }
+        CR.checkAborted();
+        int m = (a + b) >>> 1;
+        BigInteger[] left = split(a, m);
+        BigInteger[] right = split(m, b);
+        return combine(left, right);
+    }
+    static BigInteger[] combine(BigInteger[] left, BigInteger[] right) {
+        BigInteger[] result = new BigInteger[3];
+        result[0] = left[0].multiply(right[0]);
+        result[1] = left[1].multiply(right[1]);
+        result[2] = left[2].multiply(right[1]).add(left[0].multiply(right[2]));
+        return result;
+    }
+    // Return {P, Q, T} for the terms with indices in [first, b), or
+    // possibly for more terms, if we previously summed more.  b > first.
+    // The result must not be modified.
+    // We update cache_budget only after releasing our lock, since it
+    // may in turn release another series.  Thus we never hold two of
+    // these locks.
+    BigInteger[] sum(int b) {
+        final BigInteger[] result;
+        cache_budget.entry old_entry = null;
+        cache_budget.entry new_entry = null;
+        synchronized (this) {
+            if (end < b) {
+                while (end < b) {
+                    int next = end + Math.max(end - first, min_chunk);
+                    if (next > b) next = b;
+                    BigInteger[] chunk = split(end, next);
+                    pqt = (pqt == null ? chunk : combine(pqt, chunk));
+                    end = next;
+                }
+                final long bits = (long)pqt[0].bitLength()
+                        + pqt[1].bitLength() + pqt[2].bitLength();
+                old_entry = entry;
+                if (bits >= cache_budget.min_tracked_bits) {
+                    new_entry = new cache_budget.series_entry(this, bits);
+                }
+                entry = new_entry;
+            } else if (entry != null) {
+                entry.last_use = cache_budget.clock;
+            }
+            result = pqt;
+        }
+        if (old_entry != null) cache_budget.remove(old_entry);
+        if (new_entry != null) cache_budget.add(new_entry);
+        return result;
+    }
+    // Forget the partial sum accounted for by e, if it is still current.
+    synchronized void release(cache_budget.entry e) {
+        if (entry == e) {
+            end = first;
+            pqt = null;
+            entry = null;
+        }
+    }
+    // Rough cost of summing enough terms for the given number of
+    // bits, and dividing.  The multiplications at each level of the
+    // recursion cost about 4 times M(bits)/2^(0.585*level); the total
+    // is about 12 M(bits).
+    static double cost(int bits) {
+        return 14.0 * CR.mul_cost(bits);
+    }
+}
+
+// Representation of the exponential of a small rational n/d.  Private.
+// Assumes |n/d| <= 1 and d > 0.
+// Sums the Taylor series using binary splitting, reusing the terms
+// summed for earlier approximations.
+class rational_exp_CR extends slow_CR {
+    BigInteger num;
+    BigInteger den;
+    final split_series series;
+    rational_exp_CR(BigInteger n, BigInteger d) {
+        num = n;
+        den = d;
+        msd_hint = 0;   // |n/d| <= 1.
+        // The k'th term is the product of num/(den*j) for 1 <= j <= k.
+        series = new split_series(1) {
+            BigInteger[] term(int a) {
+                BigInteger[] result = new BigInteger[3];
+                result[0] = num;
+                result[1] = den.multiply(BigInteger.valueOf(a));
+                result[2] = num;
+                return result;
+            }
+        };
+    }
+    protected BigInteger approximate(int p) {
+        if (p >= 2) return big0;  // |result| <= e < 4
+        // Find the number of terms n such that the truncation error,
+        // which is < 2/n!, is < 1/4 ulp.  The final rounding adds
+        // another 1/2 ulp.
+        int n = 1;
+        double log2_fact = 0.0;
+        while (log2_fact < 4 - p) {
+            ++n;
+            log2_fact += Math.log((double)n) / doubleLog2;
+        }
+        // Sum of terms 1 .. n-1 (or more) is T/Q; result is (Q + T)/Q.
+        BigInteger[] pqt = series.sum(n);
+        BigInteger q = pqt[1];
+        BigInteger scaled_sum = q.add(pqt[2]).shiftLeft(-p);
+        return scaled_sum.add(q.shiftRight(1)).divide(q);
+    }
+    double own_cost(int p, cost_visitor v) {
+        return split_series.cost(-p);
+    }
+}
+
+// A mutable signed integer, used as the accumulator in the inner loops
+// of series evaluations.  Private.
+// Additions and divisions by small integers update the value in place,
+// so that a loop over many terms allocates nothing per term, instead of
+// a new full precision BigInteger for every intermediate result.
+// Magnitudes are little-endian arrays of 32-bit words, treated as
+// unsigned.  Values that are added repeatedly are converted to that form
+// once, by words().
+class scratch_int {
+    private static final long LONG_MASK = 0xffffffffL;
+    private int[] mag;
+    private int len;     // Number of significant words in mag.
+    private int signum;  // -1, 0, or 1
+    scratch_int(int capacity) {
+        mag = new int[Math.max(capacity, 1)];
+    }
+    // Number of words needed to hold a magnitude of 2^bits.
+    static int capacity(int bits) {
+        return (bits >>> 5) + 2;
+    }
+    // The magnitude of x, as little-endian words, without leading
+    // zero words.
+    static int[] words(BigInteger x) {
+        final byte[] bytes = x.abs().toByteArray();
+        int n = (bytes.length + 3) >>> 2;
+        final int[] result = new int[n];
+        for (int i = 0; i < bytes.length; ++i) {
+            result[i >>> 2] |= (bytes[bytes.length - 1 - i] & 0xff) << (8 * (i & 3));
+        }
+        while (n > 0 && result[n - 1] == 0) --n;
+        if (n == result.length) return result;
+        final int[] trimmed = new int[n];
+        System.arraycopy(result, 0, trimmed, 0, n);
+        return trimmed;
+    }
+    private void ensure_capacity(int n) {
+        if (mag.length < n) {
+            final int[] new_mag = new int[Math.max(n, 2 * mag.length)];
+            System.arraycopy(mag, 0, new_mag, 0, len);
+            mag = new_mag;
+        }
+    }
+    private void normalize() {
+        while (len > 0 && mag[len - 1] == 0) --len;
+        if (len == 0) signum = 0;
+    }
+    void set(BigInteger x) {
+        set(words(x), x.signum());
+    }
+    // this = sign * y, where y is a magnitude as returned by words().
+    void set(int[] y, int sign) {
+        ensure_capacity(y.length);
+        System.arraycopy(y, 0, mag, 0, y.length);
+        len = y.length;
+        signum = sign;
+        normalize();
+    }
+    void negate() {
+        signum = -signum;
+    }
+    // this += sign * y, where y is a magnitude as returned by words().
+    void add(int[] y, int sign) {
+        add(y, y.length, sign);
+    }
+    void add(scratch_int y) {
+        add(y.mag, y.len, y.signum);
+    }
+    void subtract(scratch_int y) {
+        add(y.mag, y.len, -y.signum);
+    }
+    private void add(int[] y, int y_len, int y_signum) {
+        if (y_signum == 0 || y_len == 0) return;
+        if (signum == 0) {
+            ensure_capacity(y_len);
+            System.arraycopy(y, 0, mag, 0, y_len);
+            len = y_len;
+            signum = y_signum;
+        } else if (signum == y_signum) {
+            add_magnitude(y, y_len);
+        } else {
+            final int cmp = compare_magnitude(y, y_len);
+            if (cmp >= 0) {
+                subtract_magnitude(y, y_len, false);
+            } else {
+                subtract_magnitude(y, y_len, true);
+                signum = y_signum;
+            }
+            normalize();
+        }
+    }
+    private int compare_magnitude(int[] y, int y_len) {
+        if (len != y_len) return len > y_len ? 1 : -1;
+        for (int i = len - 1; i >= 0; --i) {
+            if (mag[i] != y[i]) {
+                return (mag[i] & LONG_MASK) > (y[i] & LONG_MASK) ? 1 : -1;
+            }
+        }
+        return 0;
+    }
+    private void add_magnitude(int[] y, int y_len) {
+        final int n = Math.max(len, y_len);
+        ensure_capacity(n + 1);
+        long carry = 0;
+        for (int i = 0; i < n; ++i) {
+            final long sum = (i < len ? mag[i] & LONG_MASK : 0)
+                             + (i < y_len ? y[i] & LONG_MASK : 0) + carry;
+            mag[i] = (int)sum;
+            carry = sum >>> 32;
+        }
+        mag[n] = (int)carry;
+        len = carry != 0 ? n + 1 : n;
+    }
+    // mag = |mag| - |y|, or |y| - |mag| if reverse.  The result must be
+    // nonnegative.
+    private void subtract_magnitude(int[] y, int y_len, boolean reverse) {
+        final int n = Math.max(len, y_len);
+        ensure_capacity(n);
+        long borrow = 0;
+        for (int i = 0; i < n; ++i) {
+            final long a = i < len ? mag[i] & LONG_MASK : 0;
+            final long b = i < y_len ? y[i] & LONG_MASK : 0;
+            final long diff = (reverse ? b - a : a - b) - borrow;
+            mag[i] = (int)diff;
+            borrow = diff < 0 ? 1 : 0;
+        }
+        len = n;
+    }
+    // this = this / d, truncated towards zero, as by BigInteger.divide.
+    // 0 < d.
+    void divide(int d) {
+        long rem = 0;
+        for (int i = len - 1; i >= 0; --i) {
+            final long dividend = (rem << 32) | (mag[i] & LONG_MASK);
+            mag[i] = (int)(dividend / d);
+            rem = dividend % d;
+        }
+        normalize();
+    }
+    BigInteger to_big_integer() {
+        if (signum == 0) return BigInteger.ZERO;
+        final byte[] bytes = new byte[4 * len];
+        for (int i = 0; i < len; ++i) {
+            final int w = mag[i];
+            final int pos = 4 * (len - 1 - i);
+            bytes[pos] = (byte)(w >>> 24);
+            bytes[pos + 1] = (byte)(w >>> 16);
+            bytes[pos + 2] = (byte)(w >>> 8);
+            bytes[pos + 3] = (byte)w;
+        }
+        return new BigInteger(signum, bytes);
+    }
 }
 
 // Representation of the cosine of a constructive real.  Private.
-// Uses a Taylor series expansion.  Assumes |x| < 1.
+// Uses a Taylor series expansion.  Assumes |x| < 2.
 class prescaled_cos_CR extends slow_CR {
     CR op;
     prescaled_cos_CR(CR x) {
         op = x;
+        msd_hint = 0;
+    }
+    // Number of times we halve the argument before summing the series.
+    // Each halving costs a multiplication when we undo it, but reduces
+    // the number of series terms.  Roughly balances the two.
+    static int halvings(int p) {
+        return (int)Math.cbrt((double)(-p));
+    }
+    // Number of terms of the cosine series in z = y^2 needed to get
+    // within 2^calc_precision, if abs(z) <= 2^log2_z.
+    // Also suffices for the corresponding sine series.
+    static int terms_needed(int calc_precision, int log2_z) {
+        int n = 1;
+        double log2_term = 0.0;  // log2 of bound on nth term
+        while (log2_term >= calc_precision) {
+            log2_term += log2_z
+                         - Math.log((2.0*n - 1.0) * (2.0*n)) / Math.log(2.0);
+            ++n;
+        }
+        return n;
+    }
+    // Sum the first terms terms of sum_j (-1)^j z^j / (2j + offset)!,
+    // times offset!, given powers[i] = z^i, 0 <= i <= m, scaled by
+    // 2^-calc_precision, and the magnitudes of powers[0 .. m-1] as
+    // computed by scratch_int.words().
+    // Offset is 0 for cos, 1 for sin(y)/y.
+    // Uses Paterson and Stockmeyer's method: We group the terms
+    // into blocks of m.  Within a block only divisions by small
+    // integers and additions of precomputed powers are needed,
+    // leaving one full precision multiplication per block.
+    // The former are done in place.
+    // Contributes an error of less than 2*terms + m units.
+    static BigInteger sum_series(BigInteger powers[], int power_words[][],
+                                 int m, int terms, int offset,
+                                 int calc_precision) {
+        final int blocks = (terms + m - 1) / m;
+        final scratch_int current =
+                new scratch_int(scratch_int.capacity(2 - calc_precision));
+        BigInteger block_sum = big0;
+          // Sum of terms in this and later blocks, divided by the
+          // first term in this block.
+        for (int b = blocks - 1; b >= 0; --b) {
+            checkAborted();
+            final int first = b * m;
+            final int last = Math.min(first + m, terms);
+            current.set(scale(powers[m].multiply(block_sum), calc_precision));
+            if ((m & 1) != 0) current.negate();
+            for (int i = last - first - 1; i >= 0; --i) {
+                final long n = 2L * (first + i) + offset;
+                if ((n + 1) * (n + 2) <= Integer.MAX_VALUE) {
+                    current.divide((int)((n + 1) * (n + 2)));
+                } else {
+                    // trunc(trunc(x/a)/b) = trunc(x/(a*b)), so
+                    // this gives the same result.
+                    current.divide((int)(n + 1));
+                    current.divide((int)(n + 2));
+                }
+                if ((i & 1) == 0) {
+                    current.add(power_words[i], powers[i].signum());
+                } else {
+                    current.add(power_words[i], -powers[i].signum());
+                }
+            }
+            block_sum = current.to_big_integer();
+        }
+        return block_sum;
+    }
+    // Return approximations of cos(x) and, if want_sin, sin(x) to
+    // precision p, in that order.  abs(x) < 2.
+    static BigInteger[] sin_cos(CR x, int p, boolean want_sin) {
+        // We compute cos(y), y = x/2^k, and possibly sin(y), by summing
+        // the series in z = y^2, and then recover 1 - cos(x) by applying
+        // 1 - cos(2y) = 2c(2 - c), c = 1 - cos(y), k times.  Similarly
+        // sin(2y) = 2s(1 - c), s = sin(y).
+        // With the series summed as in sum_series, the number of full
+        // precision multiplications is only about 2*sqrt(terms) + k,
+        // rather than 2*terms.
+        // Since abs(x) < 2, abs(z) < 4^(1-k).
+        final int k = halvings(p);
+        final int terms = terms_needed(p - 2*k - 4, 2 - 2*k);
+        final int m = (int)Math.ceil(Math.sqrt((double)terms));
+        final int calc_precision = p - 2*k - bound_log2(4*(terms + m)) - 6;
+          // Each series operation contributes an error of at most
+          // one unit in the last place, i.e. 2^calc_precision; there
+          // are fewer than 2*(terms + m) of them.  Truncation, the
+          // error in x, and computing sin(y) from sin(y)/y contribute
+          // another 6*2^calc_precision.
+          // Each double angle step adds one unit and multiplies
+          // the error so far by at most 4, i.e. by at most 4^k in
+          // total.  Thus the error before final rounding is
+          // < 4^k * 2^(calc_precision+bound_log2(4*(terms+m))+2)
+          // <= 2^(p-4) < 1/16 ulp.  Final rounding error is
+          // <= 1/2 ulp.
+        final BigInteger x_appr = x.get_appr(calc_precision);
+        final BigInteger one = big1.shiftLeft(-calc_precision);
+        final BigInteger powers[] = new BigInteger[m + 1];
+        powers[0] = one;
+          // z^i scaled by 2^-calc_precision.
+        powers[1] = scale(x_appr.multiply(x_appr), calc_precision - 2*k);
+        for (int i = 2; i <= m; ++i) {
+            checkAborted();
+            powers[i] = scale(powers[i-1].multiply(powers[1]),
+                              calc_precision);
+        }
+        final int power_words[][] = new int[m][];
+        for (int i = 0; i < m; ++i) {
+            power_words[i] = scratch_int.words(powers[i]);
+        }
+        BigInteger one_minus_cos = one.subtract(
+                sum_series(powers, power_words, m, terms, 0, calc_precision));
+        BigInteger sin = null;
+        if (want_sin) {
+            sin = scale(sum_series(powers, power_words, m, terms, 1,
+                                   calc_precision)
+                        .multiply(x_appr), calc_precision - k);
+        }
+        final BigInteger two = one.shiftLeft(1);
+        for (int i = 0; i < k; ++i) {
+            checkAborted();
+            if (want_sin) {
+                sin = scale(sin.multiply(one.subtract(one_minus_cos)),
+                            calc_precision + 1);
+            }
+            one_minus_cos = scale(one_minus_cos.multiply(two.subtract(one_minus_cos)),
+                                  calc_precision + 1);
+        }
+        final BigInteger cos = scale(one.subtract(one_minus_cos), calc_precision - p);
+        if (!want_sin) {
+            return new BigInteger[] { cos };
+        }
+        return new BigInteger[] { cos, scale(sin, calc_precision - p) };
     }
     protected BigInteger approximate(int p) {
         if (p >= 1) return big0;
-        int iterations_needed = -p/2 + 4;  // conservative estimate > 0.
-          //  Claim: each intermediate term is accurate
-          //  to 2*2^calc_precision.
-          //  Total rounding error in series computation is
-          //  2*iterations_needed*2^calc_precision,
-          //  exclusive of error in op.
-        int calc_precision = p - bound_log2(2*iterations_needed)
-                               - 4; // for error in op, truncation.
-        int op_prec = p - 2;
-        BigInteger op_appr = op.get_appr(op_prec);
-          // Error in argument results in error of < 1/4 ulp.
-          // Cumulative arithmetic rounding error is < 1/16 ulp.
-          // Series truncation error < 1/16 ulp.
-          // Final rounding error is <= 1/2 ulp.
-          // Thus final error is < 1 ulp.
-        BigInteger current_term;
-        int n;
-        BigInteger max_trunc_error =
-                big1.shiftLeft(p - 4 - calc_precision);
-        n = 0;
-        current_term = big1.shiftLeft(-calc_precision);
-        BigInteger current_sum = current_term;
-        while (current_term.abs().compareTo(max_trunc_error) >= 0) {
-          if (Thread.interrupted() || please_stop) throw new AbortedException();
-          n += 2;
-          /* current_term = - current_term * op * op / n * (n - 1)   */
-          current_term = scale(current_term.multiply(op_appr), op_prec);
-          current_term = scale(current_term.multiply(op_appr), op_prec);
-          BigInteger divisor = BigInteger.valueOf(-n)
-                                  .multiply(BigInteger.valueOf(n-1));
-          current_term = current_term.divide(divisor);
-          current_sum = current_sum.add(current_term);
+        return sin_cos(op, p, false)[0];
+    }
+    // The cost of sin_cos(x, p, want_sin), which needs x to precision
+    // calc_precision.
+    static double sin_cos_cost(CR x, int p, boolean want_sin,
+                               cost_visitor v) {
+        final int k = halvings(Math.min(p, -1));
+        final int terms = terms_needed(p - 2*k - 4, 2 - 2*k);
+        final int m = (int)Math.ceil(Math.sqrt((double)terms));
+        final int calc_precision = p - 2*k - bound_log2(4*(terms + m)) - 6;
+        v.need(x, calc_precision);
+        if (p >= 1) return 0.0;
+        final int series = want_sin ? 2 : 1;
+        return (m + series * (terms / m + 1) + series * k)
+                    * mul_cost(-calc_precision)
+               + 2 * series * terms * linear_cost(-calc_precision);
+    }
+    double own_cost(int p, cost_visitor v) {
+        return sin_cos_cost(op, p, false, v);
+    }
+}
+
+// The sine and cosine of a constructive real op, abs(op) < 2,
+// computed together, and cached at the same precision.  Thus a
+// tangent needs only one argument reduction and series evaluation.
+// Private.
+class sin_cos_pair {
+    final CR op;
+    private int min_prec;
+    private BigInteger cos_appr;  // null ==> not yet computed.
+    private BigInteger sin_appr;
+    sin_cos_pair(CR x) {
+        op = x;
+    }
+    // We evaluate op without holding the lock, as CR.get_appr does.
+    // Concurrent callers may compute the pair redundantly.
+    BigInteger get_appr(int p, boolean want_sin) {
+        synchronized (this) {
+            if (cos_appr != null && p >= min_prec) {
+                return CR.scale(want_sin ? sin_appr : cos_appr, min_prec - p);
+            }
+        }
+        final BigInteger[] appr = prescaled_cos_CR.sin_cos(op, p, true);
+        synchronized (this) {
+            if (cos_appr == null || p < min_prec) {
+                cos_appr = appr[0];
+                sin_appr = appr[1];
+                min_prec = p;
+            }
+            return CR.scale(want_sin ? sin_appr : cos_appr, min_prec - p);
         }
-        return scale(current_sum, calc_precision - p);
     }
 }
 
-// The constructive real atan(1/n), where n is a small integer
-// > base.
-// This gives a simple and moderately fast way to compute PI.
-class integral_atan_CR extends slow_CR {
-    int op;
-    integral_atan_CR(int x) { op = x; }
+// Either half of a sin_cos_pair.
+class prescaled_sin_cos_CR extends slow_CR {
+    final sin_cos_pair pair;
+    final boolean is_sin;
+    prescaled_sin_cos_CR(sin_cos_pair x, boolean sin) {
+        pair = x;
+        is_sin = sin;
+        if (!sin) {
+            msd_hint = 0;
+        } else if (x.op.msd_hint != no_msd_hint) {
+            msd_hint = Math.min(x.op.msd_hint, 0);  // sin(x) ~= x
+        }
+    }
     protected BigInteger approximate(int p) {
         if (p >= 1) return big0;
-        int iterations_needed = -p/2 + 2;  // conservative estimate > 0.
-          //  Claim: each intermediate term is accurate
-          //  to 2*base^calc_precision.
-          //  Total rounding error in series computation is
-          //  2*iterations_needed*base^calc_precision,
-          //  exclusive of error in op.
-        int calc_precision = p - bound_log2(2*iterations_needed)
-                               - 2; // for error in op, truncation.
-          // Error in argument results in error of < 3/8 ulp.
-          // Cumulative arithmetic rounding error is < 1/4 ulp.
-          // Series truncation error < 1/4 ulp.
+        return pair.get_appr(p, is_sin);
+    }
+    double own_cost(int p, cost_visitor v) {
+        return prescaled_cos_CR.sin_cos_cost(pair.op, p, true, v);
+    }
+}
+
+// The tangent of a constructive real op, abs(op) < 2.  Divides
+// approximations of the sine and cosine directly, so that both are
+// needed only once, at the same precision.  (A general division
+// would refine the reciprocal of the cosine by Newton iteration,
+// evaluating the cosine repeatedly.)  Diverges if op = +-pi/2.
+class prescaled_tan_CR extends CR {
+    final CR sin;
+    final CR cos;
+    prescaled_tan_CR(CR x) {
+        sin_cos_pair pair = new sin_cos_pair(x);
+        sin = new prescaled_sin_cos_CR(pair, true);
+        cos = new prescaled_sin_cos_CR(pair, false);
+        if (x.msd_hint != no_msd_hint && x.msd_hint < -2) {
+            msd_hint = x.msd_hint;  // tan(x) ~= x
+        }
+    }
+    protected BigInteger approximate(int p) {
+        if (p > -2) return scale(get_appr(-2), -2 - p);
+        final int cos_msd = cos.msd();
+          // abs(cos) >= 2^(cos_msd-1).
+        final int prec = Math.min(p + 2*cos_msd - 6, cos_msd - 4);
+          // Errors of at most 2^prec in sin and cos, with
+          // abs(sin) <= 1, contribute an error in sin/cos of at most
+          // 2^prec * (1/abs(cos) + 1/cos^2) * (8/7)^2
+          // < 2^(prec+3-2*cos_msd) <= 2^(p-3).  The division adds
+          // less than 1/4 ulp, and final rounding <= 1/2 ulp.
+        final BigInteger cos_appr = cos.get_appr(prec);
+        final BigInteger sin_appr = sin.get_appr(prec);
+        final BigInteger quotient =
+                shift(sin_appr, 2 - p).divide(cos_appr);
+          // tan scaled by 2^-(p-2)
+        return scale(quotient, -2);
+    }
+    double own_cost(int p, cost_visitor v) {
+        // The sine comes with the cosine, and costs nothing extra.
+        final int cos_msd = cos.cached_msd();
+        final int prec = Math.min(p + 2*cos_msd - 6, cos_msd - 4);
+        v.need(cos, prec);
+        return 3.0 * mul_cost(-prec);
+    }
+}
+
+// The arctangent of a rational number num/den, with 0 <= num/den < 1/2.
+// Private.
+// Sums the series
+//   atan(x) = x/(1+x^2) * sum_k prod_{1<=j<=k} 2j/(2j+1) * x^2/(1+x^2),
+// whose terms are all positive, using split_series.
+// With x = num/den, the factor in the k'th term is
+// (2k * num^2) / ((2k+1) * (num^2 + den^2)).
+class rational_atan_CR extends slow_CR {
+    BigInteger num;
+    BigInteger den;
+    BigInteger num_squared;
+    BigInteger norm;  // num^2 + den^2
+    final split_series series;
+    rational_atan_CR(BigInteger n, BigInteger d) {
+        num = n;
+        den = d;
+        num_squared = n.multiply(n);
+        norm = num_squared.add(d.multiply(d));
+        if (n.signum() != 0) {
+            // atan(x) ~= x
+            msd_hint = n.abs().bitLength() - d.abs().bitLength();
+        }
+        series = new split_series(1) {
+            BigInteger[] term(int a) {
+                BigInteger[] result = new BigInteger[3];
+                result[0] = num_squared.multiply(BigInteger.valueOf(2L * a));
+                result[1] = norm.multiply(BigInteger.valueOf(2L * a + 1));
+                result[2] = result[0];
+                return result;
+            }
+        };
+    }
+    protected BigInteger approximate(int p) {
+        if (p >= 1) return big0;  // result < 1/2
+        if (num.signum() == 0) return big0;
+        // The k'th term is at most y^k, y = num^2/norm < 1/5, and so
+        // is the sum of the following ones, times 1/(1-y) < 5/4.
+        // With the factor x/(1+x^2) < 1/2, the truncation error is
+        // < y^n when we stop at the n'th term.  Make that < 1/4 ulp.
+        // The final rounding adds another 1/2 ulp.
+        double log2_y = Math.log(num_squared.doubleValue() / norm.doubleValue())
+                        / doubleLog2;
+        int n = (int)Math.ceil((p - 2) / log2_y) + 1;
+        if (n < 2) n = 2;
+        // Sum of terms 1 .. n-1 (or more) is T/Q; the sum is (Q + T)/Q.
+        BigInteger[] pqt = series.sum(n);
+        BigInteger q = pqt[1];
+        BigInteger numerator =
+                q.add(pqt[2]).multiply(num.multiply(den)).shiftLeft(-p);
+        BigInteger denominator = q.multiply(norm);
+        return numerator.add(denominator.shiftRight(1)).divide(denominator);
+    }
+    double own_cost(int p, cost_visitor v) {
+        return split_series.cost(-p);
+    }
+}
+
+// The arctangent of a constructive real op, abs(op) < 1/64.  Private.
+// Sums the Taylor series x * sum_j (-1)^j z^j / (2j+1), z = x^2,
+// by Paterson and Stockmeyer's method, as for prescaled_cos_CR:
+// Precompute z^1 .. z^m, m ~ sqrt(terms), and evaluate blocks of m
+// terms, combining them by Horner's rule in z^m.  Within a block we
+// only divide precomputed powers by small integers.
+class prescaled_atan_CR extends slow_CR {
+    CR op;
+    prescaled_atan_CR(CR x) {
+        op = x;
+        msd_hint = x.msd_hint;  // atan(x) ~= x for |x| < 1/64.
+    }
+    protected BigInteger approximate(int p) {
+        if (p >= -4) return big0;  // abs(result) < 1/64
+        // abs(z) < 2^-12.  Thus the n'th term of the series is
+        // < 2^(-12n), as is the sum of it and all later terms.
+        // We stop when that is < 2^(p-8).
+        final int terms = (-p + 8) / 12 + 2;
+        final int m = (int)Math.ceil(Math.sqrt((double)terms));
+        final int blocks = (terms + m - 1) / m;
+        final int calc_precision = p - bound_log2(terms + 2*m + 4) - 3;
+          // Since abs(z) < 2^-12, the computed powers are off by
+          // less than 2 units (2^calc_precision) each.  Each term and
+          // each block thus contributes an error of less than 2 units
+          // to the sum, for a total of < 2^(p-2), before multiplying
+          // by x < 1/64.  The error in x contributes less than
+          // 2^calc_precision, since the sum is < 1.  With truncation
+          // the error before final rounding is < 2^(p-4) < 1/16 ulp.
           // Final rounding error is <= 1/2 ulp.
-          // Thus final error is < 1 ulp.
-        BigInteger scaled_1 = big1.shiftLeft(-calc_precision);
-        BigInteger big_op = BigInteger.valueOf(op);
-        BigInteger big_op_squared = BigInteger.valueOf(op*op);
-        BigInteger op_inverse = scaled_1.divide(big_op);
-        BigInteger current_power = op_inverse;
-        BigInteger current_term = op_inverse;
-        BigInteger current_sum = op_inverse;
-        int current_sign = 1;
-        int n = 1;
-        BigInteger max_trunc_error =
-                big1.shiftLeft(p - 2 - calc_precision);
-        while (current_term.abs().compareTo(max_trunc_error) >= 0) {
-          if (Thread.interrupted() || please_stop) throw new AbortedException();
-          n += 2;
-          current_power = current_power.divide(big_op_squared);
-          current_sign = -current_sign;
-          current_term =
-            current_power.divide(BigInteger.valueOf(current_sign*n));
-          current_sum = current_sum.add(current_term);
+        final BigInteger op_appr = op.get_appr(calc_precision);
+        final BigInteger powers[] = new BigInteger[m + 1];
+        powers[0] = big1.shiftLeft(-calc_precision);
+          // z^i scaled by 2^-calc_precision.
+        powers[1] = scale(op_appr.multiply(op_appr), calc_precision);
+        for (int i = 2; i <= m; ++i) {
+            checkAborted();
+            powers[i] = scale(powers[i-1].multiply(powers[1]),
+                              calc_precision);
         }
-        return scale(current_sum, calc_precision - p);
+        final int power_words[][] = new int[m][];
+        for (int i = 0; i < m; ++i) {
+            power_words[i] = scratch_int.words(powers[i]);
+        }
+        // Within a block, terms are divided and accumulated in place.
+        final int capacity = scratch_int.capacity(2 - calc_precision);
+        final scratch_int sum = new scratch_int(capacity);
+        final scratch_int term = new scratch_int(capacity);
+        for (int b = blocks - 1; b >= 0; --b) {
+            checkAborted();
+            final int first = b * m;
+            final int last = Math.min(first + m, terms);
+            if (b < blocks - 1) {
+                sum.set(scale(powers[m].multiply(sum.to_big_integer()),
+                              calc_precision));
+            }
+            for (int i = 0; i < last - first; ++i) {
+                term.set(power_words[i], powers[i].signum());
+                term.divide(2 * (first + i) + 1);
+                if (((first + i) & 1) == 0) {
+                    sum.add(term);
+                } else {
+                    sum.subtract(term);
+                }
+            }
+        }
+        return scale(sum.to_big_integer().multiply(op_appr),
+                     2*calc_precision - p);
+    }
+    double own_cost(int p, cost_visitor v) {
+        final int terms = Math.max((-p + 8) / 12 + 2, 1);
+        final int m = (int)Math.ceil(Math.sqrt((double)terms));
+        final int calc_precision = p - bound_log2(terms + 2*m + 4) - 3;
+        v.need(op, calc_precision);
+        if (p >= -4) return 0.0;
+        return (2*m + 1) * mul_cost(-calc_precision)
+               + 3 * terms * linear_cost(-calc_precision);
     }
 }
 
 // Representation for ln(1 + op)
 class prescaled_ln_CR extends slow_CR {
     CR op;
-    prescaled_ln_CR(CR x) { op = x; }
+    prescaled_ln_CR(CR x) {
+        op = x;
+        msd_hint = x.msd_hint;  // ln(1+x) ~= x for |x| < 1/2.
+    }
+    // Used instead of the Taylor series above ln_agm_threshold bits of
+    // precision, unless op is small enough for the series to converge
+    // quickly.  Created lazily.
+    volatile CR agm_ln;
+    // The cost of the Taylor series below at precision p < 0, if
+    // op.msd() is msd.  Each term adds at least -msd bits.
+    static double series_cost(int p, int msd) {
+        final int terms = -p / Math.max(-Math.max(msd, p), 1) + 1;
+        return terms * (mul_cost(-p) + linear_cost(-p));
+    }
+    // Should we use the AGM at precision p, if op.msd() is msd?
+    static boolean use_agm(int p, int msd) {
+        return -p > ln_agm_threshold
+               && series_cost(p, msd) > agm_ln_CR.agm_cost(p);
+    }
     // Compute an approximation of ln(1+x) to precision
     // prec. This assumes |x| < 1/2.
     // It uses a Taylor series expansion.
@@ -1371,6 +3250,12 @@ class prescaled_ln_CR extends slow_CR {
     // appear to require precomputed tabular information.
     protected BigInteger approximate(int p) {
         if (p >= 0) return big0;
+        if (-p > ln_agm_threshold && use_agm(p, op.iter_msd(p))) {
+            if (agm_ln == null) {
+                agm_ln = new agm_ln_CR(op.add(ONE));
+            }
+            return agm_ln.get_appr(p);
+        }
         int iterations_needed = -p;  // conservative estimate > 0.
           //  Claim: each intermediate term is accurate
           //  to 2*2^calc_precision.  Total error is
@@ -1390,7 +3275,7 @@ class prescaled_ln_CR extends slow_CR {
         BigInteger max_trunc_error =
                 big1.shiftLeft(p - 4 - calc_precision);
         while (current_term.abs().compareTo(max_trunc_error) >= 0) {
-          if (Thread.interrupted() || please_stop) throw new AbortedException();
+          checkAborted();
           n += 1;
           current_sign = -current_sign;
           x_nth = scale(x_nth.multiply(op_appr), op_prec);
@@ -1400,103 +3285,60 @@ class prescaled_ln_CR extends slow_CR {
         }
         return scale(current_sum, calc_precision - p);
     }
+    double own_cost(int p, cost_visitor v) {
+        // The agm_ln_CR also evaluates PI and ln2, as agm_ln_CR.own_cost
+        // reports.  We must report them for every p, but need them only
+        // when we use the AGM.
+        final boolean use_agm = p < 0 && use_agm(p, op.cached_msd());
+        final int agm_prec = use_agm? p - agm_ln_CR.extra_prec(p)
+                                        - agm_ln_CR.scale_exp(p)
+                                    : Integer.MAX_VALUE;
+        v.need(PI, agm_prec);
+        v.need(agm_ln_CR.ln2, agm_prec);
+        if (use_agm) {
+            // Only the agm_ln_CR evaluates op, as below.
+            v.need(op, p - 4);
+            return agm_ln_CR.agm_cost(p);
+        }
+        v.need(op, p - 3);
+        if (p >= 0) return 0.0;
+        return series_cost(p, op.cached_msd());
+    }
 }
 
-// Representation of the arcsine of a constructive real.  Private.
-// Uses a Taylor series expansion.  Assumes |x| < (1/2)^(1/3).
-class prescaled_asin_CR extends slow_CR {
-    CR op;
-    prescaled_asin_CR(CR x) {
-        op = x;
+// ln(2), from CR.series_ln2, or above ln_agm_threshold bits of precision
+// directly from the AGM.  The series evaluates three logarithms, each of
+// which would use the AGM at that precision.
+class ln2_CR extends CR {
+    ln2_CR() {
+        msd_hint = -1;
     }
     protected BigInteger approximate(int p) {
-        // The Taylor series is the sum of x^(2n+1) * (2n)!/(4^n n!^2 (2n+1))
-        // Note that (2n)!/(4^n n!^2) is always less than one.
-        // (The denominator is effectively 2n*2n*(2n-2)*(2n-2)*...*2*2
-        // which is clearly > (2n)!)
-        // Thus all terms are bounded by x^(2n+1).
-        // Unfortunately, there's no easy way to prescale the argument
-        // to less than 1/sqrt(2), and we can only approximate that.
-        // Thus the worst case iteration count is fairly high.
-        // But it doesn't make much difference.
-        if (p >= 2) return big0;  // Never bigger than 4.
-        int iterations_needed = -3 * p / 2 + 4;
-                                // conservative estimate > 0.
-                                // Follows from assumed bound on x and
-                                // the fact that only every other Taylor
-                                // Series term is present.
-          //  Claim: each intermediate term is accurate
-          //  to 2*2^calc_precision.
-          //  Total rounding error in series computation is
-          //  2*iterations_needed*2^calc_precision,
-          //  exclusive of error in op.
-        int calc_precision = p - bound_log2(2*iterations_needed)
-                               - 4; // for error in op, truncation.
-        int op_prec = p - 3;  // always <= -2
-        BigInteger op_appr = op.get_appr(op_prec);
-          // Error in argument results in error of < 1/4 ulp.
-          // (Derivative is bounded by 2 in the specified range and we use
-          // 3 extra digits.)
-          // Ignoring the argument error, each term has an error of
-          // < 3ulps relative to calc_precision, which is more precise than p.
-          // Cumulative arithmetic rounding error is < 3/16 ulp (relative to p).
-          // Series truncation error < 2/16 ulp.  (Each computed term
-          // is at most 2/3 of last one, so some of remaining series <
-          // 3/2 * current term.)
-          // Final rounding error is <= 1/2 ulp.
-          // Thus final error is < 1 ulp (relative to p).
-        BigInteger max_last_term =
-                big1.shiftLeft(p - 4 - calc_precision);
-        int exp = 1; // Current exponent, = 2n+1 in above expression
-        BigInteger current_term = op_appr.shiftLeft(op_prec - calc_precision);
-        BigInteger current_sum = current_term;
-        BigInteger current_factor = current_term;
-                                    // Current scaled Taylor series term
-                                    // before division by the exponent.
-                                    // Accurate to 3 ulp at calc_precision.
-        while (current_term.abs().compareTo(max_last_term) >= 0) {
-          if (Thread.interrupted() || please_stop) throw new AbortedException();
-          exp += 2;
-          // current_factor = current_factor * op * op * (exp-1) * (exp-2) /
-          // (exp-1) * (exp-1), with the two exp-1 factors cancelling,
-          // giving
-          // current_factor = current_factor * op * op * (exp-2) / (exp-1)
-          // Thus the error any in the previous term is multiplied by
-          // op^2, adding an error of < (1/2)^(2/3) < 2/3 the original
-          // error.
-          current_factor = current_factor.multiply(BigInteger.valueOf(exp - 2));
-          current_factor = scale(current_factor.multiply(op_appr), op_prec + 2);
-                // Carry 2 extra bits of precision forward; thus
-                // this effectively introduces 1/8 ulp error.
-          current_factor = current_factor.multiply(op_appr);
-          BigInteger divisor = BigInteger.valueOf(exp - 1);
-          current_factor = current_factor.divide(divisor);
-                // Another 1/4 ulp error here.
-          current_factor = scale(current_factor, op_prec - 2);
-                // Remove extra 2 bits.  1/2 ulp rounding error.
-          // Current_factor has original 3 ulp rounding error, which we
-          // reduced by 1, plus < 1 ulp new rounding error.
-          current_term = current_factor.divide(BigInteger.valueOf(exp));
-                // Contributes 1 ulp error to sum plus at most 3 ulp
-                // from current_factor.
-          current_sum = current_sum.add(current_term);
+        if (-p > ln_agm_threshold) {
+            return agm_ln_CR.ln2.get_appr(p);
         }
-        return scale(current_sum, calc_precision - p);
-      }
-  }
-
+        return series_ln2.get_appr(p);
+    }
+    double own_cost(int p, cost_visitor v) {
+        final boolean use_agm = -p > ln_agm_threshold;
+        v.need(agm_ln_CR.ln2, use_agm ? p : Integer.MAX_VALUE);
+        v.need(series_ln2, use_agm ? Integer.MAX_VALUE : p);
+        return linear_cost(-p);
+    }
+}
 
 class sqrt_CR extends CR {
     CR op;
-    sqrt_CR(CR x) { op = x; }
+    sqrt_CR(CR x) {
+        op = x;
+        if (x.msd_hint != no_msd_hint) msd_hint = x.msd_hint >> 1;
+    }
     // Explicitly provide an initial approximation.
     // Useful for arithmetic geometric mean algorithms, where we've previously
     // computed a very similar square root.
     sqrt_CR(CR x, int min_p, BigInteger max_a) {
         op = x;
-        min_prec = min_p;
-        max_appr = max_a;
-        appr_valid = true;
+        appr_cache = new appr_snapshot(min_p, max_a);
     }
     final int fp_prec = 50;     // Conservative estimate of number of
                                 // significant bits in double precision
@@ -1542,6 +3384,190 @@ class sqrt_CR extends CR {
             return shift(scaled_sqrt, shift_count);
         }
     }
+    double own_cost(int p, cost_visitor v) {
+        final int msd = op.cached_msd();
+        final int result_digits = msd/2 - p;
+        // As in approximate, which asks for about the same relative
+        // precision for op as for the result.
+        v.need(op, msd/2 + p - 12);
+        if (result_digits <= fp_prec) return 1.0;
+        // The Newton iterations together cost about twice as much as
+        // the last one, with its multiplication and division.
+        return 6.0 * mul_cost(result_digits);
+    }
+}
+
+// The n'th root of a constructive real, n > 2.  Like sqrt_CR, we start
+// from a double precision approximation, and refine it with Newton
+// iterations y' = ((n-1)*y + x/y^(n-1))/n, each of which roughly
+// doubles the precision of the previous approximation, found in the
+// cache.
+class nthroot_CR extends CR {
+    CR op;
+    final int n;
+    nthroot_CR(CR x, int degree) {
+        op = x;
+        n = degree;
+        if (x.msd_hint != no_msd_hint) msd_hint = x.msd_hint / degree;
+    }
+    final int fp_prec = 40;     // Significant bits we trust in a
+                                // double precision Math.pow result.
+                                // Less than for sqrt, since pow is not
+                                // correctly rounded, and 1.0/n isn't exact.
+    final int fp_op_prec = 60;
+    protected BigInteger approximate(int p) {
+        if ((long)n * p < -(1L << 28)) throw new PrecisionOverflowException();
+        // If msd(op) <= n*p - n, then abs(result) < 2**(p - 1 + 1/n),
+        // and 0 is close enough.
+        int max_op_prec_needed = n*p - n;
+        int msd = op.iter_msd(max_op_prec_needed);
+        if (msd <= max_op_prec_needed) return big0;
+        int result_msd = msd/n;                 // +- 1
+        int result_digits = result_msd - p;     // +- 2
+        if (result_digits > fp_prec) {
+            // Compute a less precise approximation y = a*2**appr_prec
+            // and apply one Newton iteration.  The iteration error is
+            // about (n-1)/2 * (relative error of y)**2, so we get less
+            // than 1/16 ulp.
+            int appr_digits = result_digits/2 + 6 + bound_log2(n);
+            int appr_prec = result_msd - appr_digits;
+            BigInteger last_appr = get_appr(appr_prec);
+            BigInteger pow_n_minus_1 = last_appr.pow(n - 1);
+            // We need x/y^(n-1) to about result_digits bits, and thus x to
+            // about as many.  abs(a) >= 2**(appr_digits-2), so the error
+            // in op_appr contributes less than 1/16 ulp.
+            int op_prec = (n - 1) * result_msd + p - 2*n - 6;
+            BigInteger op_appr = op.get_appr(op_prec);
+            // Compute ((n-1)*a^n*2**(appr_prec-p) + op_appr*2**(op_prec-p)/2**((n-1)*appr_prec))
+            //          / (n*a^(n-1))
+            // which is the Newton iterate, scaled by 2**-p.
+            BigInteger numerator =
+                pow_n_minus_1.multiply(last_appr)
+                             .multiply(BigInteger.valueOf(n - 1))
+                             .shiftLeft(appr_prec - p)
+                             .add(scale(op_appr,
+                                        op_prec - p - (n - 1) * appr_prec));
+            BigInteger denominator =
+                pow_n_minus_1.multiply(BigInteger.valueOf(n));
+            // The error so far is < 1/8 ulp.  Divide with two extra bits,
+            // adding < 1/4 ulp, and round, adding <= 1/2 ulp.
+            return scale(numerator.shiftLeft(2).divide(denominator), -2);
+        } else {
+            // Use a double precision floating point approximation.
+            // Make op_prec a multiple of n, so the root rescales exactly.
+            int op_prec = msd - fp_op_prec;
+            op_prec -= ((op_prec % n) + n) % n;
+            double scaled_appr = op.get_appr(op_prec).doubleValue();
+            if (scaled_appr < 0.0 && (n & 1) == 0) {
+                throw new ArithmeticException("nthRoot(negative)");
+            }
+            double root = (n == 3 ? Math.cbrt(Math.abs(scaled_appr))
+                                  : Math.pow(Math.abs(scaled_appr), 1.0 / n));
+            // root has at least 47 correct bits, and result_digits <= 40,
+            // so its error is < 1/32 ulp.  The final rounding adds 1/2 ulp.
+            int exponent = Math.getExponent(root);
+            BigInteger mantissa =
+                BigInteger.valueOf((long)Math.scalb(root, 52 - exponent));
+            if (scaled_appr < 0.0) mantissa = mantissa.negate();
+            return scale(mantissa, op_prec/n + exponent - 52 - p);
+        }
+    }
+    double own_cost(int p, cost_visitor v) {
+        final int msd = op.cached_msd();
+        final int result_digits = msd/n - p;
+        v.need(op, (n - 1) * (msd/n) + p - 2*n - 6);
+        if (result_digits <= fp_prec) return 1.0;
+        // As for sqrt, but the power and division are for numbers
+        // about n times as long as half the result.
+        return 6.0 * mul_cost(n * result_digits / 2);
+    }
+}
+
+// op**n, for n >= 2, by left-to-right binary powering.  Rather than
+// building a tree of mult_CRs, we compute with floating point
+// approximations: w bit BigInteger mantissas, and long exponents.
+// The approximation to op, and each squaring or multiplication,
+// introduces a relative error < 2**(1-w).  The relative error in the
+// result is then less than 5n * 2**(1-w) < 2**(n_bits+4-w).
+// We first do this with few bits to bound the magnitude of the result,
+// and then, if necessary, with enough bits for the requested precision.
+class pow_CR extends CR {
+    CR op;
+    final BigInteger n;
+    final int n_bits;
+    static final long max_exponent = 1L << 40;  // Far beyond useful.
+    pow_CR(CR x, BigInteger exponent) {
+        op = x;
+        n = exponent;
+        n_bits = exponent.bitLength();
+        if (x.msd_hint != no_msd_hint && n_bits < 31) {
+            final long hint = (long)x.msd_hint * n.intValue();
+            msd_hint = (int)Math.max(-max_hint, Math.min(max_hint, hint));
+        }
+    }
+    // Raise base_m * 2**base_e to the nth power, keeping w bits after
+    // each operation.  The result is the returned mantissa times
+    // 2**exp[0].  Returns zero if the result is too small to matter.
+    BigInteger power(BigInteger base_m, long base_e, int w, long[] exp) {
+        BigInteger m = base_m;
+        long e = base_e;
+        for (int i = n_bits - 2; i >= 0; --i) {
+            checkAborted();
+            m = m.multiply(m);
+            e <<= 1;
+            if (n.testBit(i)) {
+                m = m.multiply(base_m);
+                e += base_e;
+            }
+            final int excess = m.bitLength() - w;
+            if (excess > 0) {
+                m = m.shiftRight(excess);
+                e += excess;
+            }
+            if (e > max_exponent) throw new PrecisionOverflowException();
+            if (e < -max_exponent) {
+                exp[0] = 0;
+                return big0;
+            }
+        }
+        exp[0] = e;
+        return m;
+    }
+    protected BigInteger approximate(int p) {
+        // If abs(op) < 2**(k+1), with n*(k+1) <= p-1, then
+        // abs(result) < 2**(p-1), and 0 is close enough.
+        final BigInteger[] qr = BigInteger.valueOf(p - 1).divideAndRemainder(n);
+        int k = qr[0].intValue() - 1;
+        if (qr[1].signum() < 0) --k;
+        final int msd = op.iter_msd(k);
+        if (msd <= k) return big0;
+        final long[] exp = new long[1];
+        // Bound the magnitude; the relative error here is < 1/16.
+        int w = n_bits + 8;
+        int op_prec = msd - w - 1;
+        BigInteger m = power(op.get_appr(op_prec), op_prec, w, exp);
+        if (m.signum() == 0) return big0;
+        final long result_msd = exp[0] + m.abs().bitLength() + 1;
+        if (result_msd <= p) return big0;
+        if (result_msd - p > (1 << 28)) throw new PrecisionOverflowException();
+        final int w_needed = (int)(result_msd - p) + n_bits + 6;
+        if (w_needed > w) {
+            // The relative error is now small enough that the
+            // accumulated error is < 1/4 ulp.
+            w = w_needed;
+            op_prec = msd - w - 1;
+            m = power(op.get_appr(op_prec), op_prec, w, exp);
+        }
+        // Rounding adds <= 1/2 ulp.
+        return scale(m, (int)(exp[0] - p));
+    }
+    double own_cost(int p, cost_visitor v) {
+        final int msd = op.cached_msd();
+        final long result_msd = n_bits < 31 ? (long)msd * n.intValue() : 0;
+        final int w = n_bits + 6 + (int)Math.max(0, Math.min(1 << 28, result_msd - p));
+        v.need(op, msd - w - 1);
+        return 2.0 * n_bits * mul_cost(w);
+    }
 }
 
 // The constant PI, computed using the Gauss-Legendre alternating
@@ -1559,21 +3585,14 @@ class sqrt_CR extends CR {
 //
 class gl_pi_CR extends slow_CR {
     // In addition to the best approximation kept by the CR base class, we keep
-    // the entire sequence b[n], to the extent we've needed it so far.  Each
-    // reevaluation leads to slightly different sqrt arguments, but the
-    // previous result can be used to avoid repeating low precision Newton
-    // iterations for the sqrt approximation.
-    ArrayList<Integer> b_prec = new ArrayList<Integer>();
-    ArrayList<BigInteger> b_val = new ArrayList<BigInteger>();
-    gl_pi_CR() {
-        b_prec.add(null);  // Zeroth entry unused.
-        b_val.add(null);
-    }
+    // the entire sequence b[n], to the extent we've needed it so far.
+    // Approximate() is synchronized to protect it.
+    agm_sqrt_history b_history = new agm_sqrt_history();
     private static BigInteger TOLERANCE = BigInteger.valueOf(4);
     // sqrt(1/2)
-    private static CR SQRT_HALF = new sqrt_CR(ONE.shiftRight(1));
+    private static CR SQRT_HALF = protect(new sqrt_CR(ONE.shiftRight(1)));
 
-    protected BigInteger approximate(int p) {
+    protected synchronized BigInteger approximate(int p) {
         // Rough approximations are easy.
         if (p >= 0) return scale(BigInteger.valueOf(3), -p);
         // We need roughly log2(p) iterations.  Each iteration should
@@ -1585,35 +3604,15 @@ class gl_pi_CR extends slow_CR {
         // All our terms are implicitly scaled by eval_prec.
         final int eval_prec = p - extra_eval_prec;
         BigInteger a = BigInteger.ONE.shiftLeft(-eval_prec);
-        BigInteger b = SQRT_HALF.get_appr(eval_prec);
+        BigInteger b = locked_appr(SQRT_HALF, eval_prec);
         BigInteger t = BigInteger.ONE.shiftLeft(-eval_prec - 2);
         int n = 0;
         while (a.subtract(b).subtract(TOLERANCE).signum() > 0) {
+            checkAborted();
             // Current values correspond to n, next_ values to n + 1
-            // b_prec.size() == b_val.size() >= n + 1
             final BigInteger next_a = a.add(b).shiftRight(1);
             final BigInteger a_diff = a.subtract(next_a);
-            CR next_b_as_CR;
-            final BigInteger b_prod = a.multiply(b).shiftRight(-eval_prec);
-            // We the compute square root approximations using a nested
-            // temporary CR computation, to avoid implementing BigInteger
-            // square roots separately.
-            final CR b_prod_as_CR = CR.valueOf(b_prod).shiftRight(-eval_prec);
-            if (b_prec.size() == n + 1) {
-                // Need an n+1st slot.
-                b_prec.add(null);
-                b_val.add(null);
-                next_b_as_CR = b_prod_as_CR.sqrt();
-            } else {
-                // Reuse previous approximation to reduce sqrt iterations,
-                // hopefully to one.
-                next_b_as_CR = new sqrt_CR(b_prod_as_CR, b_prec.get(n + 1),
-                                           b_val.get(n + 1));
-            }
-            // b_prec.size() == b_val.size() >= n + 2
-            final BigInteger next_b = next_b_as_CR.get_appr(eval_prec);
-            b_prec.set(n + 1, Integer.valueOf(p));
-            b_val.set(n + 1, scale(next_b, -extra_eval_prec));
+            final BigInteger next_b = b_history.next_b(n, a, b, eval_prec, p);
             final BigInteger next_t =
                     t.subtract(a_diff.multiply(a_diff)
                      .shiftLeft(n + eval_prec));  // shift dist. usually neg.
@@ -1626,4 +3625,385 @@ class gl_pi_CR extends slow_CR {
         final BigInteger result = sum.multiply(sum).divide(t).shiftRight(2);
         return scale(result, -extra_eval_prec);
     }
+    double own_cost(int p, cost_visitor v) {
+        v.need(SQRT_HALF, p - bound_log2(-p) - 10);
+        return agm_ln_CR.agm_cost(p);
+    }
+}
+
+// The constant PI, computed using the Chudnovsky series
+//      1/pi = 12 sum_k (-1)^k (6k)! (13591409 + 545140134k)
+//                              / ((3k)! (k!)^3 640320^(3k+3/2))
+// whose partial sums are computed exactly by binary splitting, with
+// split_series.  Each term contributes slightly more than 47 bits.
+// Since PI never changes, the most precise approximation computed so far
+// may also be saved to a file, and is then reloaded lazily, the first
+// time a later process needs a precise approximation.
+class chudnovsky_pi_CR extends slow_CR {
+    private static final BigInteger A = BigInteger.valueOf(13591409);
+    private static final BigInteger B = BigInteger.valueOf(545140134);
+    private static final BigInteger C = BigInteger.valueOf(426880);
+    // 640320^3/24
+    private static final BigInteger C3_OVER_24 =
+            BigInteger.valueOf(10939058860032000L);
+    private static final int bits_per_term = 47;
+    private static final CR sqrt_10005 = protect(CR.valueOf(10005).sqrt());
+    // Cached approximations with fewer bits are cheap to recompute, and
+    // not worth saving.
+    static final int min_saved_bits = 1000;
+    // Number of bits checked against a fresh computation when loading.
+    private static final int check_bits = 256;
+    private static final int file_magic = 0x50694331;
+    static volatile File cache_file;  // null ==> don't persist.
+    // The most precise approximation known, and its precision.
+    // Protected by this object's lock.
+    private File loaded_file;
+    private BigInteger saved_appr;
+    private int saved_prec;
+    // The precision of the approximation in loaded_file, or of the last
+    // one we asked writer to put there.  0 ==> none.  We write again only
+    // once we have twice as many bits, so that refining PI step by step
+    // doesn't rewrite the file each time.  Protected by this object's lock.
+    private int persisted_prec;
+    // The precision of the most recently requested write.  Writes that
+    // have been superseded by the time writer gets to them are skipped.
+    private volatile int pending_prec;
+    // Writes the file in the background, in order, so that neither the
+    // evaluating thread nor other threads waiting for this object's lock
+    // wait for the disk.
+    private static ExecutorService writer;
+
+    // The series terms, without the factors common to all of them.
+    // The term ratios are P/Q, as in split_series.  Shared by all
+    // instances, and kept across approximations.
+    private static final split_series series = new split_series(1) {
+        BigInteger[] term(int a) {
+            final BigInteger k = BigInteger.valueOf(a);
+            final BigInteger six_k = BigInteger.valueOf(6L * a);
+            final BigInteger p = six_k.subtract(BigInteger.valueOf(5))
+                    .multiply(k.shiftLeft(1).subtract(big1))
+                    .multiply(six_k.subtract(big1)).negate();
+            final BigInteger q = k.multiply(k).multiply(k).multiply(C3_OVER_24);
+            final BigInteger t = p.multiply(A.add(B.multiply(k)));
+            return new BigInteger[] {p, q, t};
+        }
+    };
+    static {
+        series.is_protected = true;  // Like PI itself.
+    }
+
+    // Compute PI/2**p, p < 0, without consulting the saved approximation.
+    static BigInteger compute(int p) {
+        // The terms omitted in the series decrease by a factor of more than
+        // 2**47 each, so their sum contributes a relative error smaller than
+        // 2**(p-47).  The sqrt(10005) approximation contributes an error of
+        // at most 1/16 ulp, since it is multiplied by PI/sqrt(10005) < 1/16.
+        // The final division adds at most 1/2 ulp.
+        final int terms = -p / bits_per_term + 2;
+        final BigInteger[] pqt = series.sum(terms);
+        final BigInteger q = pqt[1];
+        final BigInteger den = A.multiply(q).add(pqt[2]);
+        final BigInteger num = C.multiply(sqrt_10005.get_appr(p)).multiply(q);
+        return num.add(den.shiftRight(1)).divide(den);
+    }
+
+    // Load the saved approximation from cache_file, if we haven't already.
+    // Anything that fails to look like a valid approximation of PI
+    // is silently ignored.
+    private void load_saved() {
+        final File f = cache_file;
+        if (f == null || f.equals(loaded_file)) return;
+        loaded_file = f;
+        persisted_prec = 0;
+        if (!f.exists()) return;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(f)))) {
+            if (in.readInt() != file_magic) return;
+            final int prec = in.readInt();
+            final int len = in.readInt();
+            // The header and checksum take 20 bytes.  Checking against the
+            // file length keeps a corrupt length from making us allocate
+            // a huge array.
+            if (prec > -min_saved_bits || len <= 0 || len > -prec / 8 + 16
+                || len > f.length() - 20) {
+                return;
+            }
+            final byte[] bytes = new byte[len];
+            in.readFully(bytes);
+            final CRC32 crc = new CRC32();
+            crc.update(bytes);
+            if (in.readLong() != crc.getValue()) return;
+            final BigInteger appr = new BigInteger(bytes);
+            final BigInteger diff = scale(appr, prec + check_bits)
+                                    .subtract(compute(-check_bits));
+            if (diff.abs().compareTo(big1) > 0) return;
+            persisted_prec = prec;
+            if (saved_appr == null || prec < saved_prec) {
+                saved_appr = appr;
+                saved_prec = prec;
+            }
+        } catch (IOException e) {
+            Log.w("CR", "Failed to read cached PI: " + e);
+        }
+    }
+
+    // Atomically replace cache_file by the given approximation.
+    private static void write(File f, int prec, BigInteger appr) {
+        final File tmp = new File(f.getPath() + ".tmp");
+        final byte[] bytes = appr.toByteArray();
+        final CRC32 crc = new CRC32();
+        crc.update(bytes);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(file_magic);
+            out.writeInt(prec);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.writeLong(crc.getValue());
+        } catch (IOException e) {
+            Log.w("CR", "Failed to save PI: " + e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(f)) {
+            tmp.delete();
+        }
+    }
+
+    // Return the saved approximation rescaled to p, if it is precise enough.
+    private synchronized BigInteger saved_approximation(int p) {
+        load_saved();
+        if (saved_appr == null || saved_prec > p) return null;
+        return scale(saved_appr, saved_prec - p);
+    }
+
+    private synchronized void save(final int p, final BigInteger appr) {
+        if (saved_appr != null && saved_prec <= p) return;
+        saved_appr = appr;
+        saved_prec = p;
+        final File f = cache_file;
+        if (f == null || !f.equals(loaded_file)
+            || (persisted_prec != 0 && p > 2L * persisted_prec)) {
+            return;
+        }
+        persisted_prec = p;
+        pending_prec = p;
+        writer().execute(new Runnable() {
+            public void run() {
+                if (pending_prec == p) write(f, p, appr);
+            }
+        });
+    }
+
+    private static synchronized ExecutorService writer() {
+        if (writer == null) {
+            writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    final Thread t = new Thread(r, "CR PI writer");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return writer;
+    }
+
+    protected BigInteger approximate(int p) {
+        // Rough approximations are easy.
+        if (p >= 0) return scale(BigInteger.valueOf(3), -p);
+        if (-p < min_saved_bits) return compute(p);
+        final BigInteger saved = saved_approximation(p);
+        if (saved != null) return saved;
+        final BigInteger result = compute(p);
+        save(p, result);
+        return result;
+    }
+    double own_cost(int p, cost_visitor v) {
+        v.need(sqrt_10005, p);
+        // Q has about twice as many bits as the result.  A saved
+        // approximation, if any, is not taken into account.
+        return split_series.cost(-2*p);
+    }
+}
+
+// The sequence of geometric means b[n] computed by an arithmetic-geometric
+// mean iteration, to the extent we've needed it so far.  Each reevaluation
+// leads to slightly different sqrt arguments, but the previous result can
+// be used to avoid repeating low precision Newton iterations for the sqrt
+// approximation.  Used by gl_pi_CR and agm_ln_CR.
+// Not synchronized; relies on the caller's approximate() being synchronized.
+class agm_sqrt_history {
+    ArrayList<Integer> b_prec = new ArrayList<Integer>();
+    ArrayList<BigInteger> b_val = new ArrayList<BigInteger>();
+    agm_sqrt_history() {
+        b_prec.add(null);  // Zeroth entry unused.
+        b_val.add(null);
+    }
+    // Return b[n+1] = sqrt(a[n] * b[n]), where a, b and the result are
+    // scaled by 2**eval_prec.  The result is remembered at precision
+    // save_prec, to serve as the starting point for a later,
+    // more precise, evaluation.
+    // The nested get_appr may throw, e.g. a deferred_appr, in which case
+    // the caller retries from n = 0.  We thus update the history only
+    // once we have the result.
+    BigInteger next_b(int n, BigInteger a, BigInteger b, int eval_prec,
+                      int save_prec) {
+        // b_prec.size() == b_val.size() >= n + 1
+        CR next_b_as_CR;
+        final BigInteger b_prod = a.multiply(b).shiftRight(-eval_prec);
+        // We the compute square root approximations using a nested
+        // temporary CR computation, to avoid implementing BigInteger
+        // square roots separately.
+        final CR b_prod_as_CR = CR.valueOf(b_prod).shiftRight(-eval_prec);
+        final boolean have_previous = b_prec.size() > n + 1;
+        if (have_previous) {
+            // Reuse previous approximation to reduce sqrt iterations,
+            // hopefully to one.
+            next_b_as_CR = new sqrt_CR(b_prod_as_CR, b_prec.get(n + 1),
+                                       b_val.get(n + 1));
+        } else {
+            next_b_as_CR = b_prod_as_CR.sqrt();
+        }
+        final BigInteger next_b = next_b_as_CR.get_appr(eval_prec);
+        final BigInteger saved_b = CR.scale(next_b, eval_prec - save_prec);
+        if (have_previous) {
+            b_prec.set(n + 1, Integer.valueOf(save_prec));
+            b_val.set(n + 1, saved_b);
+        } else {
+            // Add the n+1st slot.
+            b_prec.add(Integer.valueOf(save_prec));
+            b_val.add(saved_b);
+        }
+        return next_b;
+    }
+    // Forget all previously computed means.
+    void clear() {
+        b_prec.subList(1, b_prec.size()).clear();
+        b_val.subList(1, b_val.size()).clear();
+    }
+}
+
+// Natural logarithm of a constructive real y, computed using the
+// arithmetic-geometric mean:
+//
+//      ln(s) = pi / (2 * AGM(1, 4/s)) + O(ln(s)/s**2)
+//
+// We apply this to s = y * 2**m, for m large enough that the error term
+// is negligible, and then subtract m * ln(2), which we compute the same
+// way, using s = 2**m.  Needs O(log(-p)) full precision multiplications
+// and square roots, instead of the O(-p) needed by the Taylor series.
+// Used by prescaled_ln_CR at high precision.  Assumes 1/2 < y < 2.
+class agm_ln_CR extends slow_CR {
+    CR op;
+    agm_ln_CR(CR x) { op = x; }
+    // Geometric means for the current value of m.  The sequence differs
+    // for different m, and thus must be discarded when m changes.
+    agm_sqrt_history b_history = new agm_sqrt_history();
+    int history_m = 0;
+    private static BigInteger TOLERANCE = BigInteger.valueOf(4);
+    // ln(2), computed the same way.  Unlike CR.series_ln2, this doesn't
+    // depend on prescaled_ln_CR, and hence on agm_ln_CR.  CR.ln2 uses it
+    // at high precision.
+    static CR ln2 = protect(new agm_ln2_CR());
+
+    // Extra bits carried for rounding errors accumulated in the
+    // AGM iteration.  There are O(log(-p)) iterations.
+    static int extra_prec(int p) {
+        return bound_log2(-p) + 10;
+    }
+    // Choose m such that 1/s**2 is negligible at precision p.
+    // We round up to a multiple of 64 so that m rarely changes as
+    // precision is increased in small steps.
+    static int scale_exp(int p) {
+        return ((extra_prec(p) - p) / 2 + 8 + 63) & ~63;
+    }
+    // Return pi/(2*AGM(1, b)), where b and the result are scaled by
+    // 2**eval_prec.  Successive square roots are remembered in history
+    // at precision save_prec.  Called with the lock protecting history
+    // held.
+    static BigInteger pi_over_2agm(BigInteger b, int eval_prec,
+                                   agm_sqrt_history history, int save_prec) {
+        BigInteger a = big1.shiftLeft(-eval_prec);
+        int n = 0;
+        while (a.subtract(b).subtract(TOLERANCE).signum() > 0) {
+            checkAborted();
+            final BigInteger next_a = a.add(b).shiftRight(1);
+            final BigInteger next_b =
+                    history.next_b(n, a, b, eval_prec, save_prec);
+            a = next_a;
+            b = next_b;
+            ++n;
+        }
+        final BigInteger pi = locked_appr(PI, eval_prec);
+        return pi.shiftLeft(-eval_prec).divide(a.shiftLeft(1));
+    }
+    // Rough cost of the AGM iteration for an approximation to
+    // precision p, as in CR.estimateCost.  There are about
+    // log2(-eval_prec) iterations, each with a square root; the
+    // sqrt history saves all but the last Newton step.
+    static double agm_cost(int p) {
+        final int bits = extra_prec(p) + scale_exp(p) - p;
+        return (bound_log2(bits) + 2) * 6.0 * mul_cost(bits);
+    }
+    protected synchronized BigInteger approximate(int p) {
+        // Since 4/s is tiny, rounding errors in b[0] and the early b[n]
+        // are amplified by roughly s/4.  We thus compute the AGM to m
+        // bits more than the final result.  Rounding errors in the
+        // late iterations, where a[n] and b[n] are close, are amplified
+        // by less than ln(s)**2, which is much less than 2**m.
+        // Thus extra_prec(p) suffices to cover the remaining
+        // errors, including those in pi, ln(2), and op.
+        final int extra = extra_prec(p);
+        final int m = scale_exp(p);
+        final int eval_prec = p - extra - m;
+        if (m != history_m) {
+            b_history.clear();
+            history_m = m;
+        }
+        final int op_prec = p - 4;
+        final BigInteger op_appr = locked_appr(op, op_prec);
+            // The derivative of ln is < 2, so the error is < 1/8 ulp.
+        if (op_appr.signum() <= 0) {
+            throw new ArithmeticException("ln(non-positive)");
+        }
+        // b[0] = 4/s = 2**(2-m)/y
+        final BigInteger b = big1.shiftLeft(2 - m - eval_prec - op_prec)
+                                 .divide(op_appr);
+        final BigInteger ln_s = pi_over_2agm(b, eval_prec, b_history, p);
+        final BigInteger m_ln2 =
+                locked_appr(ln2, eval_prec).multiply(BigInteger.valueOf(m));
+        return scale(ln_s.subtract(m_ln2), eval_prec - p);
+    }
+    double own_cost(int p, cost_visitor v) {
+        final int eval_prec = p - extra_prec(p) - scale_exp(p);
+        v.need(op, p - 4);
+        v.need(PI, eval_prec);
+        v.need(ln2, eval_prec);
+        return agm_cost(p);
+    }
+}
+
+// ln(2), computed as ln(2**m)/m, using the AGM as above.
+// Private to agm_ln_CR.
+class agm_ln2_CR extends slow_CR {
+    agm_sqrt_history b_history = new agm_sqrt_history();
+    int history_m = 0;
+    protected synchronized BigInteger approximate(int p) {
+        final int extra = agm_ln_CR.extra_prec(p);
+        final int m = agm_ln_CR.scale_exp(p);
+        final int eval_prec = p - extra - m;
+        if (m != history_m) {
+            b_history.clear();
+            history_m = m;
+        }
+        // b[0] = 4/2**m is exact.
+        final BigInteger b = big1.shiftLeft(2 - m - eval_prec);
+        final BigInteger ln_s =
+                agm_ln_CR.pi_over_2agm(b, eval_prec, b_history, p);
+        return scale(ln_s.divide(BigInteger.valueOf(m)), eval_prec - p);
+    }
+    double own_cost(int p, cost_visitor v) {
+        v.need(PI, p - agm_ln_CR.extra_prec(p) - agm_ln_CR.scale_exp(p));
+        return agm_ln_CR.agm_cost(p);
+    }
 }
@@ -43,6 +43,8 @@ package com.hp.creals;
 // import android.util.Log;
 
 import java.math.BigInteger;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 /**
 * Unary functions on constructive reals implemented as objects.
@@ -156,7 +158,20 @@ public abstract class UnaryCRFunction {
 * The original function may be either increasing or decreasing.
 */
     public UnaryCRFunction inverseMonotone(CR low, CR high) {
-        return new inverseMonotone_UnaryCRFunction(this, low, high);
+        return new inverseMonotone_UnaryCRFunction(this, low, high,
+                                                   derivative());
+    }
+
+/**
+* Compute the inverse of this function, as above, given its first
+* derivative on [<TT>low</tt>, <TT>high</tt>].
+* The derivative lets the inverse refine its approximations with
+* Newton steps, so that it needs fewer evaluations of this function.
+*/
+    public UnaryCRFunction inverseMonotone(CR low, CR high,
+                                           UnaryCRFunction derivative) {
+        return new inverseMonotone_UnaryCRFunction(this, low, high,
+                                                   derivative);
     }
 
 /**
@@ -165,29 +180,247 @@ public abstract class UnaryCRFunction {
 * and the derivative must exist, and must be continuous and
 * monotone in the open interval [<TT>low</tt>, <TT>high</tt>].
 * The result is defined only in the open interval.
+* If this function is built from the function objects above with
+* <TT>compose</tt> and <TT>inverseMonotone</tt>, and does not use
+* <TT>absFunction</tt>, the derivative is computed directly, by
+* propagating derivatives through each step.
 */
     public UnaryCRFunction monotoneDerivative(CR low, CR high) {
+        if (differentiable()) {
+            return new derivative_UnaryCRFunction(this);
+        }
         return new monotoneDerivative_UnaryCRFunction(this, low, high);
     }
 
+/**
+* Evaluate this function at each of the arguments <TT>xs</tt>.
+* Element <TT>i</tt> of the result is
+* <TT>execute(xs[i]).get_appr(precision)</tt>, i.e. the function value
+* scaled by 2**(-<TT>precision</tt>), with an error of less than one.
+* Intended for tables and plots.  The built-in <TT>sin</tt>,
+* <TT>cos</tt>, <TT>exp</tt> and <TT>ln</tt> functions reduce each
+* argument directly, using approximations of <TT>PI</tt> and
+* <TT>ln(2)</tt> shared by all arguments.  Large batches are split
+* among the threads of a fork-join pool.
+*/
+    public BigInteger[] executeAll(CR[] xs, int precision) {
+        final BigInteger[] result = new BigInteger[xs.length];
+        if (xs.length <= execute_all_task.chunk_size || CR.holding_lock()) {
+            execute_range(xs, precision, result, 0, xs.length);
+            return result;
+        }
+        final execute_all_task task = new execute_all_task(
+                this, xs, precision, result, 0, xs.length,
+                CR.getCancellationToken());
+        if (ForkJoinTask.inForkJoinPool()) {
+            task.invoke();
+        } else {
+            CR.fork_join_pool().invoke(task);
+        }
+        return result;
+    }
+
+    // Compute result[i] for from <= i < to, as executeAll describes.
+    void execute_range(CR[] xs, int precision, BigInteger[] result,
+                       int from, int to) {
+        for (int i = from; i < to; ++i) {
+            CR.checkAborted();
+            result[i] = execute_appr(xs[i], precision);
+        }
+    }
+
+    // execute(x).get_appr(p).  Overridden by functions that can do
+    // better without building CRs for each argument.
+    BigInteger execute_appr(CR x, int p) {
+        return execute(x).get_appr(p);
+    }
+
+    // True if execute_dual is implemented, i.e. if this function is
+    // built from functions whose derivatives we know.
+    boolean differentiable() {
+        return false;
+    }
+
+    // This function applied to x, where x carries the derivative of
+    // its value with respect to some variable.  The result carries the
+    // derivative of the function value with respect to that variable.
+    // Only called if differentiable() is true.
+    dual_CR execute_dual(dual_CR x) {
+        throw new ArithmeticException("not differentiable");
+    }
+
+    // The first derivative of this function, or null if we don't
+    // know it.  Used by inverseMonotone.
+    UnaryCRFunction derivative() {
+        return differentiable()? new derivative_UnaryCRFunction(this)
+                               : null;
+    }
+
+    // The number of bits in the multiple of pi/2 or ln2 that we assume
+    // we will subtract from an argument when we first approximate it.
+    static final int guessed_bits = 8;
+
+    // Base 2 logarithm of a positive BigInteger, of any size.
+    static double log2(BigInteger n) {
+        final int shift = Math.max(n.bitLength() - 60, 0);
+        return Math.log(n.shiftRight(shift).doubleValue()) / Math.log(2.0)
+               + shift;
+    }
+
+    // The number of bits in abs(k), so that 1 + abs(k) <= 2**result.
+    static int bits(long k) {
+        return 64 - Long.numberOfLeadingZeros(Math.abs(k));
+    }
+}
+
+// A value, together with its derivative with respect to some
+// variable.  Used to propagate exact derivatives through functions.
+// Private.
+class dual_CR {
+    final CR value;
+    final CR deriv;
+    dual_CR(CR v, CR d) {
+        value = v; deriv = d;
+    }
+    // The dual number for g(value), given g(value) and g'(value).
+    // By the chain rule, the derivative is deriv * g'(value).
+    dual_CR apply(CR g, CR g_prime) {
+        return new dual_CR(g, deriv == CR.ONE? g_prime
+                                             : deriv.multiply(g_prime));
+    }
+}
+
+// The first derivative of a differentiable function.
+class derivative_UnaryCRFunction extends UnaryCRFunction {
+    final UnaryCRFunction f;
+    derivative_UnaryCRFunction(UnaryCRFunction func) {
+        f = func;
+    }
+    public CR execute(CR x) {
+        return f.execute_dual(new dual_CR(x, CR.ONE)).deriv;
+    }
+}
+
+// Evaluates a range of executeAll arguments, splitting it in halves
+// until the pieces are small.  Inherits the cancellation token of the
+// thread that called executeAll.
+// Private.
+class execute_all_task extends RecursiveAction {
+    static final int chunk_size = 32;
+    final UnaryCRFunction f;
+    final CR[] xs;
+    final int precision;
+    final BigInteger[] result;
+    final int from;
+    final int to;
+    final CR.CancellationToken token;
+    execute_all_task(UnaryCRFunction func, CR[] args, int prec,
+                     BigInteger[] out, int start, int end,
+                     CR.CancellationToken t) {
+        f = func; xs = args; precision = prec; result = out;
+        from = start; to = end; token = t;
+    }
+    protected void compute() {
+        if (to - from > chunk_size) {
+            final int middle = (from + to) >>> 1;
+            invokeAll(new execute_all_task(f, xs, precision, result,
+                                           from, middle, token),
+                      new execute_all_task(f, xs, precision, result,
+                                           middle, to, token));
+            return;
+        }
+        final CR.CancellationToken previous = CR.setCancellationToken(token);
+        try {
+            f.execute_range(xs, precision, result, from, to);
+        } finally {
+            CR.setCancellationToken(previous);
+        }
+    }
 }
 
 // Subclasses of UnaryCRFunction for various built-in functions.
-class sin_UnaryCRFunction extends UnaryCRFunction {
+
+// Sine and cosine.  Their execute_appr subtracts a multiple of pi/2
+// from the argument approximation, chosen so that only the cosine
+// series is needed for the result.
+abstract class quadrant_UnaryCRFunction extends UnaryCRFunction {
+    final int quadrant_offset;  // f(x) = cos(x + quadrant_offset*pi/2)
+    quadrant_UnaryCRFunction(int offset) {
+        quadrant_offset = offset;
+    }
+    BigInteger execute_appr(CR x, int p) {
+        if (p >= 1) return CR.big0;  // abs(f(x)) <= 1
+        int arg_prec = p - 3 - guessed_bits;
+        BigInteger x_appr = x.get_appr(arg_prec);
+        final BigInteger rough_appr = CR.scale(x_appr, arg_prec + 2);
+        if (rough_appr.bitLength() > 50) {
+            // Too big for the double computation below.
+            return execute(x).get_appr(p);
+        }
+        // f(x) = cos(y), y = x + quadrant_offset*pi/2, = (-1)**j * cos(r),
+        // r = y - j*pi = x - k*pi/2.  abs(r) < pi/2 + 1/4 < 2, as
+        // CR.prescaled_cos_appr requires.
+        final long j = Math.round(rough_appr.doubleValue() / (4 * Math.PI)
+                                  + quadrant_offset / 2.0);
+        final long k = 2 * j - quadrant_offset;
+        // The reduced argument is off by < (1 + abs(k)) * 2**arg_prec
+        // <= 2**(p-3), and so is its cosine.
+        if (bits(k) > guessed_bits) {
+            arg_prec = p - 3 - bits(k);
+            x_appr = x.get_appr(arg_prec);
+        }
+        final BigInteger reduced_appr =
+                x_appr.subtract(CR.half_pi.get_appr(arg_prec)
+                                .multiply(BigInteger.valueOf(k)));
+        final CR reduced = CR.valueOf(reduced_appr).shiftLeft(arg_prec);
+        BigInteger result_appr =
+                CR.prescaled_cos_appr(reduced, p - 3);
+        if ((j & 1) != 0) result_appr = result_appr.negate();
+        // The series error is < 2**(p-3), and rounding adds 1/2 ulp.
+        return CR.scale(result_appr, -3);
+    }
+}
+
+class sin_UnaryCRFunction extends quadrant_UnaryCRFunction {
+    sin_UnaryCRFunction() {
+        super(-1);
+    }
     public CR execute(CR x) {
         return x.sin();
     }
+    boolean differentiable() {
+        return true;
+    }
+    dual_CR execute_dual(dual_CR x) {
+        return x.apply(x.value.sin(), x.value.cos());
+    }
 }
 
-class cos_UnaryCRFunction extends UnaryCRFunction {
+class cos_UnaryCRFunction extends quadrant_UnaryCRFunction {
+    cos_UnaryCRFunction() {
+        super(0);
+    }
     public CR execute(CR x) {
         return x.cos();
     }
+    boolean differentiable() {
+        return true;
+    }
+    dual_CR execute_dual(dual_CR x) {
+        return x.apply(x.value.cos(), x.value.sin().negate());
+    }
 }
 
 class tan_UnaryCRFunction extends UnaryCRFunction {
     public CR execute(CR x) {
-        return x.sin().divide(x.cos());
+        return x.tan();
+    }
+    boolean differentiable() {
+        return true;
+    }
+    dual_CR execute_dual(dual_CR x) {
+        CR tan = x.value.tan();
+        return x.apply(tan, CR.ONE.add(tan.multiply(tan)));
     }
 }
 
@@ -195,25 +428,41 @@ class asin_UnaryCRFunction extends UnaryCRFunction {
     public CR execute(CR x) {
         return x.asin();
     }
+    boolean differentiable() {
+        return true;
+    }
+    dual_CR execute_dual(dual_CR x) {
+        CR v = x.value;
+        return x.apply(v.asin(),
+                       CR.ONE.subtract(v.multiply(v)).sqrt().inverse());
+    }
 }
 
 class acos_UnaryCRFunction extends UnaryCRFunction {
     public CR execute(CR x) {
         return x.acos();
     }
+    boolean differentiable() {
+        return true;
+    }
+    dual_CR execute_dual(dual_CR x) {
+        CR v = x.value;
+        return x.apply(v.acos(),
+                       CR.ONE.subtract(v.multiply(v)).sqrt().inverse()
+                                                       .negate());
+    }
 }
 
-// This uses the identity (sin x)^2 = (tan x)^2/(1 + (tan x)^2)
-// Since we know the tangent of the result, we can get its sine,
-// and then use the asin function.  Note that we don't always
-// want the positive square root when computing the sine.
 class atan_UnaryCRFunction extends UnaryCRFunction {
-    CR one = CR.valueOf(1);
     public CR execute(CR x) {
-        CR x2 = x.multiply(x);
-        CR abs_sin_atan = x2.divide(one.add(x2)).sqrt();
-        CR sin_atan = x.select(abs_sin_atan.negate(), abs_sin_atan);
-        return sin_atan.asin();
+        return x.atan();
+    }
+    boolean differentiable() {
+        return true;
+    }
+    dual_CR execute_dual(dual_CR x) {
+        CR v = x.value;
+        return x.apply(v.atan(), CR.ONE.add(v.multiply(v)).inverse());
     }
 }
 
@@ -221,30 +470,147 @@ class exp_UnaryCRFunction extends UnaryCRFunction {
     public CR execute(CR x) {
         return x.exp();
     }
+    boolean differentiable() {
+        return true;
+    }
+    dual_CR execute_dual(dual_CR x) {
+        CR exp = x.value.exp();
+        return x.apply(exp, exp);
+    }
+    // exp(x) = 2**k * exp(x - k*ln2), with the reduction performed on
+    // approximations.
+    BigInteger execute_appr(CR x, int p) {
+        // For large p the result only needs a coarse approximation of x,
+        // but k must still come from one good to within 1/16.
+        final int rough_prec = Math.min(p - 4 - guessed_bits, -4);
+        final BigInteger rough_x = x.get_appr(rough_prec);
+        final BigInteger rough_appr = CR.scale(rough_x, rough_prec + 2);
+        if (rough_appr.bitLength() > 30) {
+            // The result is too big to represent, or 0.
+            return execute(x).get_appr(p);
+        }
+        // abs(x - k*ln2) < ln2/2 + 1/4 < 1, as CR.prescaled_exp requires.
+        final long k = Math.round(rough_appr.doubleValue() / (4 * Math.log(2)));
+        // exp(x - k*ln2) is needed to precision reduced_prec.  The reduced
+        // argument is off by < (1 + abs(k)) * 2**arg_prec
+        // <= 2**(reduced_prec-4), and, since its exponential is < 2,
+        // the exponential by < 2**(reduced_prec-3).
+        final int reduced_prec = p - (int)k;
+        int arg_prec = reduced_prec - 4 - bits(k);
+        BigInteger x_appr = rough_x;
+        if (arg_prec < rough_prec) {
+            x_appr = x.get_appr(arg_prec);
+        } else {
+            arg_prec = rough_prec;
+        }
+        final BigInteger reduced_appr =
+                x_appr.subtract(CR.ln2.get_appr(arg_prec)
+                                .multiply(BigInteger.valueOf(k)));
+        final CR reduced = CR.valueOf(reduced_appr).shiftLeft(arg_prec);
+        final BigInteger result_appr =
+                CR.prescaled_exp(reduced).get_appr(reduced_prec - 3);
+        return CR.scale(result_appr, -3);
+    }
 }
 
 class ln_UnaryCRFunction extends UnaryCRFunction {
     public CR execute(CR x) {
         return x.ln();
     }
+    boolean differentiable() {
+        return true;
+    }
+    dual_CR execute_dual(dual_CR x) {
+        return x.apply(x.value.ln(), x.value.inverse());
+    }
+    // ln(i/16), for the values of i used below.  Shared by all
+    // arguments, so that each argument's series converges quickly.
+    static final CR[] ln_sixteenths = new CR[24];
+    static {
+        for (int i = 11; i < 24; ++i) {
+            ln_sixteenths[i] = CR.valueOf(i).shiftRight(4).ln();
+        }
+    }
+    // ln(x) = ln(x/(2**k * i/16)) + ln(i/16) + k*ln2, with x/2**k and
+    // i/16 close to each other.
+    BigInteger execute_appr(CR x, int p) {
+        int arg_prec = p - 5 - guessed_bits;
+        BigInteger x_appr = x.get_appr(arg_prec);
+        if (x_appr.bitLength() <= 2 * guessed_bits) {
+            // x is small.  Find its magnitude first.
+            arg_prec = x.msd() - 2 * guessed_bits - 1;
+            x_appr = x.get_appr(arg_prec);
+        }
+        if (x_appr.signum() < 0) {
+            throw new ArithmeticException("ln(negative)");
+        }
+        // m = x/2**k is between 0.7 and 1.42.
+        final double log2_x = log2(x_appr);
+        final int k = arg_prec + (int)Math.round(log2_x);
+        final int i = (int)Math.round(16.0 * Math.pow(2.0, log2_x + arg_prec - k));
+        // m = x_appr * 2**scale_prec, to within 2**scale_prec.  We need it
+        // to within 2**(p-5).
+        if (arg_prec > p - 5 + k) {
+            arg_prec = p - 5 + k;
+            x_appr = x.get_appr(arg_prec);
+        }
+        final int scale_prec = arg_prec - k;
+        // r = m/(i/16) - 1, scaled by 2**(scale_prec-2).  The error in m,
+        // magnified by less than 16/11, and truncation add up to
+        // < 2**(scale_prec+1) <= 2**(p-4).  abs(r) < 1/22, so
+        // ln(1 + r) is off by < 2**(p-3).
+        final BigInteger r_appr =
+                x_appr.shiftLeft(4)
+                      .subtract(BigInteger.valueOf(i).shiftLeft(-scale_prec))
+                      .shiftLeft(2).divide(BigInteger.valueOf(i));
+        final CR r = CR.valueOf(r_appr).shiftLeft(scale_prec - 2);
+        // The three terms are off by less than 2 + abs(k) units
+        // together, i.e. by < 2**(p-3).
+        final int eval_prec = p - 4 - bits(k);
+        final BigInteger sum =
+                CR.prescaled_ln(r).get_appr(eval_prec)
+                .add(ln_sixteenths[i].get_appr(eval_prec))
+                .add(CR.ln2.get_appr(eval_prec).multiply(BigInteger.valueOf(k)));
+        // Rounding adds 1/2 ulp.
+        return CR.scale(sum, eval_prec - p);
+    }
 }
 
 class identity_UnaryCRFunction extends UnaryCRFunction {
     public CR execute(CR x) {
         return x;
     }
+    boolean differentiable() {
+        return true;
+    }
+    dual_CR execute_dual(dual_CR x) {
+        return x;
+    }
 }
 
 class negate_UnaryCRFunction extends UnaryCRFunction {
     public CR execute(CR x) {
         return x.negate();
     }
+    boolean differentiable() {
+        return true;
+    }
+    dual_CR execute_dual(dual_CR x) {
+        return new dual_CR(x.value.negate(), x.deriv.negate());
+    }
 }
 
 class inverse_UnaryCRFunction extends UnaryCRFunction {
     public CR execute(CR x) {
         return x.inverse();
     }
+    boolean differentiable() {
+        return true;
+    }
+    dual_CR execute_dual(dual_CR x) {
+        CR inverse = x.value.inverse();
+        return x.apply(inverse, inverse.multiply(inverse).negate());
+    }
 }
 
 class abs_UnaryCRFunction extends UnaryCRFunction {
@@ -257,6 +623,13 @@ class sqrt_UnaryCRFunction extends UnaryCRFunction {
     public CR execute(CR x) {
         return x.sqrt();
     }
+    boolean differentiable() {
+        return true;
+    }
+    dual_CR execute_dual(dual_CR x) {
+        CR sqrt = x.value.sqrt();
+        return x.apply(sqrt, sqrt.shiftLeft(1).inverse());
+    }
 }
 
 class compose_UnaryCRFunction extends UnaryCRFunction {
@@ -269,6 +642,12 @@ class compose_UnaryCRFunction extends UnaryCRFunction {
     public CR execute(CR x) {
         return f1.execute(f2.execute(x));
     }
+    boolean differentiable() {
+        return f1.differentiable() && f2.differentiable();
+    }
+    dual_CR execute_dual(dual_CR x) {
+        return f1.execute_dual(f2.execute_dual(x));
+    }
 }
 
 class inverseMonotone_UnaryCRFunction extends UnaryCRFunction {
@@ -293,6 +672,8 @@ class inverseMonotone_UnaryCRFunction extends UnaryCRFunction {
     final int deriv_msd[] = new int[1];
                                 // Rough approx. of msd of first
                                 // derivative.
+    final UnaryCRFunction deriv[] = new UnaryCRFunction[1];
+                                // Derivative of f[0], or null.
     final static BigInteger BIG1023 = BigInteger.valueOf(1023);
     static final boolean ENABLE_TRACE = false;  // Change to generate trace
     static void trace(String s) {
@@ -301,7 +682,17 @@ class inverseMonotone_UnaryCRFunction extends UnaryCRFunction {
             // Change to Log.v("UnaryCRFunction", s); for Android use.
         }
     }
-    inverseMonotone_UnaryCRFunction(UnaryCRFunction func, CR l, CR h) {
+    // A bracket for the inverse: l and h, scaled by 2**prec.
+    static class bracket {
+        final BigInteger l;
+        final BigInteger h;
+        final int prec;
+        bracket(BigInteger l, BigInteger h, int prec) {
+            this.l = l; this.h = h; this.prec = prec;
+        }
+    }
+    inverseMonotone_UnaryCRFunction(UnaryCRFunction func, CR l, CR h,
+                                    UnaryCRFunction derivative) {
         low[0] = l; high[0] = h;
         CR tmp_f_low = func.execute(l);
         CR tmp_f_high = func.execute(h);
@@ -310,11 +701,14 @@ class inverseMonotone_UnaryCRFunction extends UnaryCRFunction {
         if (tmp_f_low.compareTo(tmp_f_high) > 0) {
             f[0] = UnaryCRFunction.negateFunction.compose(func);
             f_negated[0] = true;
+            deriv[0] = (derivative == null? null
+                        : UnaryCRFunction.negateFunction.compose(derivative));
             f_low[0] = tmp_f_low.negate();
             f_high[0] = tmp_f_high.negate();
         } else {
             f[0] = func;
             f_negated[0] = false;
+            deriv[0] = derivative;
             f_low[0] = tmp_f_low;
             f_high[0] = tmp_f_high;
         }
@@ -325,8 +719,95 @@ class inverseMonotone_UnaryCRFunction extends UnaryCRFunction {
     }
     class inverseIncreasingCR extends CR {
         final CR arg;
+        // The narrowest bracket found by earlier calls to approximate:
+        // the inverse lies strictly between its l and h.  Kept so that
+        // requests for more precision can start from it.
+        volatile bracket last_bracket;
+        // Approximate msd of the derivative of f near the inverse.
+        // Initially the secant slope over the whole interval.
+        int local_deriv_msd;
         inverseIncreasingCR(CR x) {
             arg = f_negated[0]? x.negate() : x;
+            local_deriv_msd = deriv_msd[0];
+        }
+        void record_bracket(BigInteger l, BigInteger h, int prec) {
+            final bracket b = last_bracket;
+            if (b == null || prec < b.prec) {
+                last_bracket = new bracket(l, h, prec);
+            }
+        }
+        // f(x), with x scaled by 2**arg_prec, scaled by 2**eval_prec.
+        BigInteger eval(UnaryCRFunction fn, BigInteger x, int arg_prec,
+                        int eval_prec) {
+            return fn.execute(valueOf(x).shiftLeft(arg_prec))
+                     .get_appr(eval_prec);
+        }
+        // Try to narrow b to width 4 at arg_prec with a single Newton
+        // step from its midpoint, or a secant step if we don't know
+        // the derivative.  Both roughly double the number of correct
+        // bits in b.  Return the upper end of the new bracket, or null
+        // if the step did not get close enough.  Low_appr and high_appr
+        // bound the domain of f, as in approximate.
+        BigInteger quadratic_step(bracket b, int arg_prec, int eval_prec,
+                                  BigInteger arg_appr, BigInteger low_appr,
+                                  BigInteger high_appr) {
+            final UnaryCRFunction fn = f[0];
+            final UnaryCRFunction dfn = deriv[0];
+            final BigInteger l = b.l.shiftLeft(b.prec - arg_prec);
+            final BigInteger h = b.h.shiftLeft(b.prec - arg_prec);
+            final BigInteger width = h.subtract(l);
+            BigInteger guess;
+            if (dfn != null) {
+                // A relative error in the derivative of less than
+                // 2**-bits contributes less than 1/4 to guess.
+                final int bits = width.bitLength() + 2;
+                final BigInteger mid = l.add(h).shiftRight(1);
+                final CR mid_cr = valueOf(mid).shiftLeft(arg_prec);
+                int deriv_prec = local_deriv_msd - bits - 4;
+                BigInteger d = dfn.execute(mid_cr).get_appr(deriv_prec);
+                if (d.bitLength() <= bits) {
+                    // Local_deriv_msd was a poor estimate.  Try once more.
+                    deriv_prec -= bits + 4 - d.bitLength();
+                    d = dfn.execute(mid_cr).get_appr(deriv_prec);
+                    if (d.bitLength() <= bits) return null;
+                }
+                if (d.signum() <= 0) return null;
+                local_deriv_msd = deriv_prec + d.bitLength() - 1;
+                BigInteger f_mid = fn.execute(mid_cr).get_appr(eval_prec);
+                BigInteger t = arg_appr.subtract(f_mid);
+                final int shift = eval_prec - deriv_prec - arg_prec;
+                if (shift >= 0) {
+                    t = t.shiftLeft(shift);
+                } else {
+                    d = d.shiftLeft(-shift);
+                }
+                guess = mid.add(t.divide(d));
+            } else {
+                BigInteger f_l = eval(fn, l, arg_prec, eval_prec);
+                BigInteger f_h = eval(fn, h, arg_prec, eval_prec);
+                BigInteger f_difference = f_h.subtract(f_l);
+                if (f_difference.signum() <= 0) return null;
+                guess = l.add(arg_appr.subtract(f_l).multiply(width)
+                                      .divide(f_difference));
+            }
+            final BigInteger new_l = guess.subtract(big2);
+            final BigInteger new_h = guess.add(big2);
+            trace("Quadratic step from " + l + ", " + h + " to " + guess);
+            if (new_l.compareTo(l) < 0 || new_h.compareTo(h) > 0
+                || new_l.compareTo(low_appr) < 0
+                || new_h.compareTo(high_appr) > 0) {
+                trace("Quadratic step left bracket");
+                return null;
+            }
+            if (sloppy_compare(eval(fn, new_l, arg_prec, eval_prec),
+                               arg_appr) >= 0
+                || sloppy_compare(eval(fn, new_h, arg_prec, eval_prec),
+                                  arg_appr) <= 0) {
+                trace("Quadratic step not close enough");
+                return null;
+            }
+            record_bracket(new_l, new_h, arg_prec);
+            return new_h;
         }
         // Comparison with a difference of one treated as equality.
         int sloppy_compare(BigInteger x, BigInteger y) {
@@ -339,6 +820,21 @@ class inverseMonotone_UnaryCRFunction extends UnaryCRFunction {
             }
             return 0;
         }
+        // We evaluate fn at a few points for each doubling of precision,
+        // and the last few, near the precision we need, dominate.  We
+        // can't see what those evaluations need, so we charge each as
+        // CR.own_cost does for an unknown node.
+        double own_cost(int p, cost_visitor v) {
+            int arg_prec = p - 4;
+            if (arg_prec > max_arg_prec[0]) arg_prec = max_arg_prec[0];
+            final int eval_prec = arg_prec + deriv_msd[0] - 20;
+            v.need(arg, eval_prec);
+            v.need(low[0], arg_prec);
+            v.need(high[0], arg_prec);
+            v.need(f_low[0], eval_prec);
+            v.need(f_high[0], eval_prec);
+            return 6 * super.own_cost(eval_prec, v);
+        }
         protected BigInteger approximate(int p) {
             final int extra_arg_prec = 4;
             final UnaryCRFunction fn = f[0];
@@ -379,7 +875,9 @@ class inverseMonotone_UnaryCRFunction extends UnaryCRFunction {
             BigInteger high_appr = high[0].get_appr(working_arg_prec)
                                           .subtract(big1);
             BigInteger arg_appr = arg.get_appr(working_eval_prec);
-            boolean have_good_appr = (appr_valid && min_prec < max_msd[0]);
+            final appr_snapshot cache = appr_cache;
+            boolean have_good_appr =
+                    (cache != null && cache.min_prec < max_msd[0]);
             if (digits_needed < 30 && !have_good_appr) {
                 trace("Setting interval to entire domain");
                 h = high_appr;
@@ -396,11 +894,32 @@ class inverseMonotone_UnaryCRFunction extends UnaryCRFunction {
                 at_right = true;
                 small_step_deficit = 2;        // Start with bin search steps.
             } else {
+                // First try a single quadratic step from a bracket
+                // good to about half the digits we need, with some
+                // slack for the second derivative of f.
+                final int quadratic_prec = p + digits_needed/2 - 12;
+                bracket b = last_bracket;
+                if (digits_needed >= 30 && (b == null
+                        || b.prec + extra_arg_prec > quadratic_prec)) {
+                    get_appr(quadratic_prec);
+                    b = last_bracket;
+                }
+                if (b != null && b.prec > working_arg_prec
+                    && b.prec + extra_arg_prec <= quadratic_prec) {
+                    BigInteger result =
+                        quadratic_step(b, working_arg_prec, working_eval_prec,
+                                       arg_appr, low_appr, high_appr);
+                    if (result != null) {
+                        trace("Quadratic step succeeded");
+                        return scale(result, -extra_arg_prec);
+                    }
+                }
                 int rough_prec = p + digits_needed/2;
 
                 if (have_good_appr &&
-                    (digits_needed < 30 || min_prec < p + 3*digits_needed/4)) {
-                    rough_prec = min_prec;
+                    (digits_needed < 30
+                     || cache.min_prec < p + 3*digits_needed/4)) {
+                    rough_prec = cache.min_prec;
                 }
                 BigInteger rough_appr = get_appr(rough_prec);
                 trace("Setting interval based on prev. appr");
@@ -430,8 +949,7 @@ class inverseMonotone_UnaryCRFunction extends UnaryCRFunction {
             }
             BigInteger difference = h.subtract(l);
             for(int i = 0;; ++i) {
-                if (Thread.interrupted() || please_stop)
-                    throw new AbortedException();
+                checkAborted();
                 trace("***Iteration: " + i);
                 trace("Arg prec = " + working_arg_prec
                       + " eval prec = " + working_eval_prec
@@ -440,6 +958,7 @@ class inverseMonotone_UnaryCRFunction extends UnaryCRFunction {
                 trace("f(l) = " + f_l); trace("f(h) = " + f_h);
                 if (difference.compareTo(big6) < 0) {
                     // Answer is less than 1/2 ulp away from h.
+                    record_bracket(l, h, working_arg_prec);
                     return scale(h, -extra_arg_prec);
                 }
                 BigInteger f_difference = f_h.subtract(f_l);
@@ -567,6 +1086,16 @@ class inverseMonotone_UnaryCRFunction extends UnaryCRFunction {
     public CR execute(CR x) {
         return new inverseIncreasingCR(x);
     }
+    boolean differentiable() {
+        return deriv[0] != null;
+    }
+    // The derivative of the inverse at x is 1/f'(inverse(x)).
+    dual_CR execute_dual(dual_CR x) {
+        CR result = execute(x.value);
+        CR deriv_f = deriv[0].execute(result);
+        return x.apply(result, (f_negated[0]? deriv_f.negate() : deriv_f)
+                                .inverse());
+    }
 }
 
 class monotoneDerivative_UnaryCRFunction extends UnaryCRFunction {
@@ -630,6 +1159,17 @@ class monotoneDerivative_UnaryCRFunction extends UnaryCRFunction {
                                 max_delta_left_msd
                                 : max_delta_right_msd);
         }
+        // We evaluate f at two points near arg.  We can't see what
+        // those evaluations need, so we charge each as CR.own_cost does
+        // for an unknown node.
+        double own_cost(int p, cost_visitor v) {
+            int log_delta = p - deriv2_msd[0];
+            if (log_delta > max_delta_msd) log_delta = max_delta_msd;
+            final int eval_prec = p - 8 + log_delta;
+            v.need(arg, eval_prec);
+            v.need(f_arg, eval_prec);
+            return 2 * super.own_cost(eval_prec, v);
+        }
         protected BigInteger approximate(int p) {
             final int extra_prec = 4;
             int log_delta = p - deriv2_msd[0];
@@ -652,8 +1192,7 @@ class monotoneDerivative_UnaryCRFunction extends UnaryCRFunction {
             if (deriv_difference.compareTo(big8) < 0) {
                 return scale(appr_left_deriv, -extra_prec);
             } else {
-                if (Thread.interrupted() || please_stop)
-                    throw new AbortedException();
+                checkAborted();
                 deriv2_msd[0] =
                         eval_prec + deriv_difference.bitLength() + 4/*slop*/;
                 deriv2_msd[0] -= log_delta;
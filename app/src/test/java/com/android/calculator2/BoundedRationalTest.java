@@ -0,0 +1,107 @@
+package com.android.calculator2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.hp.creals.CR;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.junit.Test;
+
+// Checks BoundedRational.nthRoot, which recognizes perfect powers whose
+// roots have at most 50 bits, and the UnifiedReal roots built on it.
+// Roots near the 53-bit double precision limit are the interesting
+// ones, since the initial estimate comes from Math.pow.
+public class BoundedRationalTest {
+    private static final int[] DEGREES = { 2, 3, 4, 5, 7 };
+
+    private static BigInteger randomRoot(Random r, int bits) {
+        return new BigInteger(bits - 1, r).setBit(bits - 1);
+    }
+
+    @Test
+    public void testPerfectPowers() {
+        Random r = new Random(23);
+        for (int n : DEGREES) {
+            for (int bits = 43; bits <= 50; ++bits) {
+                for (int i = 0; i < 10; ++i) {
+                    BigInteger root = randomRoot(r, bits);
+                    BoundedRational x = new BoundedRational(root.pow(n));
+                    assertEquals(bits + "-bit root, degree " + n,
+                                 new BoundedRational(root), BoundedRational.nthRoot(x, n));
+                }
+            }
+            BigInteger max_root = BigInteger.ONE.shiftLeft(50).subtract(BigInteger.ONE);
+            assertEquals(new BoundedRational(max_root),
+                         BoundedRational.nthRoot(new BoundedRational(max_root.pow(n)), n));
+        }
+    }
+
+    @Test
+    public void testLargeRoots() {
+        // Perfect powers with roots of more than 50 bits are not recognized.
+        Random r = new Random(29);
+        for (int n : DEGREES) {
+            for (int bits = 51; bits <= 60; ++bits) {
+                BigInteger root = randomRoot(r, bits);
+                assertNull(BoundedRational.nthRoot(new BoundedRational(root.pow(n)), n));
+            }
+        }
+    }
+
+    @Test
+    public void testNonPowers() {
+        Random r = new Random(31);
+        for (int n : DEGREES) {
+            for (int bits = 2; bits <= 50; bits += 4) {
+                BigInteger root = randomRoot(r, bits);
+                BigInteger power = root.pow(n);
+                assertNull(BoundedRational.nthRoot(
+                        new BoundedRational(power.add(BigInteger.ONE)), n));
+                assertNull(BoundedRational.nthRoot(
+                        new BoundedRational(power.subtract(BigInteger.ONE)), n));
+            }
+        }
+    }
+
+    @Test
+    public void testFractionsAndSigns() {
+        assertEquals(new BoundedRational(2, 3),
+                     BoundedRational.nthRoot(new BoundedRational(32, 243), 5));
+        assertEquals(new BoundedRational(-2, 3),
+                     BoundedRational.nthRoot(new BoundedRational(-8, 27), 3));
+        assertEquals(BoundedRational.ZERO,
+                     BoundedRational.nthRoot(BoundedRational.ZERO, 4));
+        assertNull(BoundedRational.nthRoot(new BoundedRational(16, 27), 3));
+        assertNull(BoundedRational.nthRoot(null, 3));
+        try {
+            BoundedRational.nthRoot(new BoundedRational(-16), 4);
+            fail("even root of negative");
+        } catch (ArithmeticException expected) {
+        }
+    }
+
+    @Test
+    public void testUnifiedRealRoots() {
+        // x^(1/n) uses nthRoot for rational x, and otherwise CR.nthRoot.
+        // Compare both with exp(ln(x)/n).
+        long[][] args = { { 1024, 1 }, { 2, 1 }, { 10, 7 }, { 1, 1000 } };
+        for (long[] a : args) {
+            for (int n : DEGREES) {
+                UnifiedReal x = new UnifiedReal(new BoundedRational(a[0], a[1]));
+                UnifiedReal root = x.pow(new UnifiedReal(new BoundedRational(1, n)));
+                CR expected = CR.valueOf(a[0]).divide(CR.valueOf(a[1])).ln()
+                        .divide(CR.valueOf(n)).exp();
+                for (int p : new int[] { 0, -10, -200, -1000 }) {
+                    BigInteger diff = root.crValue().get_appr(p).subtract(expected.get_appr(p));
+                    assertTrue(a[0] + "/" + a[1] + " ^ 1/" + n + " at " + p,
+                               diff.abs().compareTo(BigInteger.ONE) <= 0);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.android.calculator2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.hp.creals.CR;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import org.junit.Test;
+
+// Checks that Interval results agree with the CR reference evaluation.
+// A truncated digit string is correct if it is below the true value by
+// less than one unit in the last place.
+public class IntervalTest {
+    private static final int DIGITS = 40;
+
+    private static Interval v(long n, long d) {
+        return Interval.valueOf(new BoundedRational(n, d));
+    }
+
+    private static CR c(long n, long d) {
+        return CR.valueOf(n).divide(CR.valueOf(d));
+    }
+
+    private static void check(String name, Interval x, CR expected) {
+        assertNotNull(name, x);
+        String s = x.toStringTruncated(DIGITS);
+        assertNotNull(name + ": " + x, s);
+        BigInteger truncated = new BigDecimal(s).movePointRight(DIGITS).toBigIntegerExact();
+        // |truncated - expected * 10^DIGITS| < 1, checked to within 2^-10.
+        BigInteger appr = CR.valueOf(truncated)
+                .subtract(expected.multiply(CR.valueOf(BigInteger.TEN.pow(DIGITS))))
+                .abs().get_appr(-10);
+        assertTrue(name + ": " + s + " vs " + expected.toString(DIGITS + 5),
+                   appr.compareTo(BigInteger.valueOf(1 << 10)) < 0);
+    }
+
+    @Test
+    public void testArithmetic() {
+        check("1/3 + 1/7", Interval.add(v(1, 3), v(1, 7)), c(10, 21));
+        check("pi - e", Interval.subtract(Interval.PI, Interval.E),
+              CR.PI.subtract(CR.ONE.exp()));
+        check("-pi * e", Interval.multiply(Interval.negate(Interval.PI), Interval.E),
+              CR.PI.negate().multiply(CR.ONE.exp()));
+        check("e / -pi", Interval.divide(Interval.E, Interval.negate(Interval.PI)),
+              CR.ONE.exp().divide(CR.PI.negate()));
+        assertNull(Interval.divide(Interval.ONE, v(0, 1)));
+        assertNull(Interval.inverse(Interval.sin(Interval.PI)));
+    }
+
+    @Test
+    public void testExact() {
+        assertEquals(new BoundedRational(10, 21),
+                     Interval.add(v(1, 3), v(1, 7)).exactValue());
+        assertEquals(new BoundedRational(3), Interval.sqrt(v(9, 1)).exactValue());
+        assertEquals(new BoundedRational(1, 8),
+                     Interval.pow(v(2, 1), BigInteger.valueOf(-3)).exactValue());
+        assertEquals(new BoundedRational(3628800), Interval.fact(v(10, 1)).exactValue());
+        assertNull(Interval.sqrt(v(2, 1)).exactValue());
+        assertNull(Interval.multiply(Interval.PI, v(2, 1)).exactValue());
+    }
+
+    @Test
+    public void testFunctions() {
+        long[][] args = { { 1, 3 }, { 5, 4 }, { 7, 2 }, { 30, 1 }, { -22, 7 }, { 3, 1000000 } };
+        for (long[] a : args) {
+            Interval x = v(a[0], a[1]);
+            CR cx = c(a[0], a[1]);
+            String arg = a[0] + "/" + a[1];
+            check("sin " + arg, Interval.sin(x), cx.sin());
+            check("cos " + arg, Interval.cos(x), cx.cos());
+            check("tan " + arg, Interval.tan(x), cx.tan());
+            check("atan " + arg, Interval.atan(x),
+                  cx.divide(cx.multiply(cx).add(CR.ONE).sqrt()).asin());
+            check("exp " + arg, Interval.exp(Interval.negate(x)), cx.negate().exp());
+            if (a[0] > 0) {
+                check("ln " + arg, Interval.ln(x), cx.ln());
+                check("sqrt " + arg, Interval.sqrt(x), cx.sqrt());
+                check("log10 " + arg, Interval.log10(x), cx.ln().divide(CR.valueOf(10).ln()));
+                check("pow " + arg, Interval.pow(x, Interval.E), cx.ln().multiply(CR.ONE.exp()).exp());
+            }
+        }
+        check("asin 1/3", Interval.asin(v(1, 3)), c(1, 3).asin());
+        check("acos -1/3", Interval.acos(v(-1, 3)), c(-1, 3).acos());
+        check("pi^7", Interval.pow(Interval.PI, BigInteger.valueOf(7)),
+              CR.PI.multiply(CR.PI).multiply(CR.PI).multiply(CR.PI).multiply(CR.PI)
+                   .multiply(CR.PI).multiply(CR.PI));
+        check("sin 45 deg", Interval.sin(Interval.multiply(v(45, 1), Interval.RADIANS_PER_DEGREE)),
+              CR.valueOf(2).sqrt().divide(CR.valueOf(2)));
+        check("sqrt 2", Interval.valueOf(new UnifiedReal(CR.valueOf(2).sqrt())),
+              CR.valueOf(2).sqrt());
+    }
+
+    @Test
+    public void testDomain() {
+        assertNull(Interval.ln(v(-1, 1)));
+        assertNull(Interval.ln(v(0, 1)));
+        assertNull(Interval.sqrt(v(-1, 1)));
+        assertNull(Interval.asin(v(2, 1)));
+        assertNull(Interval.acos(v(-3, 2)));
+        assertNull(Interval.exp(v(100000, 1)));
+        assertNull(Interval.fact(v(1, 2)));
+        assertNull(Interval.pow(v(-2, 1), Interval.E));
+    }
+
+    @Test
+    public void testTruncation() {
+        assertEquals("0.3333", v(1, 3).toStringTruncated(4));
+        assertEquals("-0.6666", v(-2, 3).toStringTruncated(4));
+        assertEquals("3.", Interval.PI.toStringTruncated(0));
+        assertNull(v(1, 100000).toStringTruncated(4));
+        assertNull(Interval.sin(Interval.PI).toStringTruncated(4));
+        assertEquals(Integer.MAX_VALUE, Interval.sin(Interval.PI).msdOffset());
+        assertEquals(4, v(123, 100000).msdOffset());
+        assertEquals(0, v(123, 1).msdOffset() + 1);
+    }
+}
@@ -0,0 +1,61 @@
+package com.hp.creals;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.junit.Test;
+
+// Compares CR.bigIntegerToString with BigInteger.toString, for numbers
+// on both sides of the sizes at which the conversion is split, and
+// run in parallel.
+public class BigIntegerToStringTest {
+    private static final int[] RADICES = { 2, 3, 7, 10, 16, 36 };
+
+    private static void check(BigInteger n) {
+        for (int radix : RADICES) {
+            assertEquals(n.bitLength() + " bits, radix " + radix,
+                         n.toString(radix), CR.bigIntegerToString(n, radix));
+        }
+    }
+
+    @Test
+    public void testRandom() {
+        Random r = new Random(17);
+        int[] sizes = { 0, 1, 31, 64, 100, CR.conversion_leaf_bits - 1,
+                        CR.conversion_leaf_bits, CR.conversion_leaf_bits + 1,
+                        5000, 40000 };
+        for (int bits : sizes) {
+            BigInteger n = new BigInteger(bits, r).setBit(Math.max(bits - 1, 0));
+            check(n);
+            check(n.negate());
+        }
+    }
+
+    @Test
+    public void testParallel() {
+        BigInteger n = new BigInteger(CR.parallel_conversion_threshold + 1000, new Random(3))
+                .negate();
+        for (int radix : new int[] { 7, 10 }) {
+            assertEquals("radix " + radix, n.toString(radix), CR.bigIntegerToString(n, radix));
+        }
+    }
+
+    @Test
+    public void testPowersOfRadix() {
+        // Pieces with leading zeroes, and values at the split points.
+        for (int radix : RADICES) {
+            BigInteger big_radix = BigInteger.valueOf(radix);
+            for (int k : new int[] { 1, 100, 1000, 3000 }) {
+                BigInteger power = big_radix.pow(k);
+                for (BigInteger n : new BigInteger[] {
+                        power, power.subtract(BigInteger.ONE), power.add(BigInteger.ONE),
+                        power.multiply(power).add(BigInteger.ONE) }) {
+                    assertEquals(radix + "^" + k, n.toString(radix),
+                                 CR.bigIntegerToString(n, radix));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.hp.creals;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+
+import org.junit.Test;
+
+// Evaluates very deep expressions on a thread with a small stack, as
+// calculator background threads have.  Without the depth limit in
+// get_appr, each of these would overflow the stack.  The add chain is
+// slow mainly because each addition needs two more bits of its operands.
+public class DeepExpressionTest {
+    private static final int DEPTH = 100000;
+    private static final long STACK_SIZE = 512 * 1024;
+
+    // An operation defined outside the built-in ones, as a subclass
+    // written by a user of the package would be.
+    private static class plus_one_CR extends CR {
+        final CR op;
+        plus_one_CR(CR x) { op = x; }
+        protected BigInteger approximate(int p) {
+            return op.get_appr(p - 1).add(BigInteger.ONE.shiftLeft(1 - p))
+                     .shiftRight(1);
+        }
+    }
+
+    // Run r on a thread with a small stack, and rethrow what it throws.
+    private static void runWithSmallStack(final Runnable r) throws Throwable {
+        final Throwable[] thrown = new Throwable[1];
+        Thread t = new Thread(null, new Runnable() {
+            public void run() {
+                try {
+                    r.run();
+                } catch (Throwable e) {
+                    thrown[0] = e;
+                }
+            }
+        }, "deep", STACK_SIZE);
+        t.start();
+        t.join();
+        if (thrown[0] != null) throw thrown[0];
+    }
+
+    @Test
+    public void testAddChain() throws Throwable {
+        runWithSmallStack(new Runnable() {
+            public void run() {
+                CR x = CR.ZERO;
+                for (int i = 1; i <= DEPTH; ++i) {
+                    x = x.add(CR.valueOf(i));
+                }
+                long sum = (long) DEPTH * (DEPTH + 1) / 2;
+                assertEquals(BigInteger.valueOf(sum).shiftLeft(10), x.get_appr(-10));
+            }
+        });
+    }
+
+    @Test
+    public void testSubclassChain() throws Throwable {
+        runWithSmallStack(new Runnable() {
+            public void run() {
+                CR x = CR.ONE.shiftRight(1);
+                for (int i = 0; i < DEPTH; ++i) {
+                    x = new plus_one_CR(x);
+                }
+                // Each node rounds, so allow one unit.
+                BigInteger expected = BigInteger.valueOf(2 * DEPTH + 1).shiftLeft(3);
+                BigInteger appr = x.get_appr(-4);
+                assertTrue(appr.subtract(expected).abs().compareTo(BigInteger.ONE) <= 0);
+            }
+        });
+    }
+}
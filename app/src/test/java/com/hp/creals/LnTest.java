@@ -0,0 +1,86 @@
+package com.hp.creals;
+
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+
+import org.junit.Test;
+
+// Compares logarithms computed with the AGM above ln_agm_threshold
+// against the Taylor series, which is used at every precision when the
+// threshold is raised.  Arguments close to one use the series at any
+// precision; we check those on both sides of the switch.
+public class LnTest {
+    private static final int[] PRECISIONS = { -50, -900, -1100, -3000, -6000 };
+
+    private interface Function {
+        CR apply();
+    }
+
+    private static void check(String name, Function f) {
+        final int saved_threshold = CR.ln_agm_threshold;
+        for (int p : PRECISIONS) {
+            BigInteger agm = f.apply().get_appr(p);
+            BigInteger series;
+            CR.ln_agm_threshold = Integer.MAX_VALUE;
+            try {
+                series = f.apply().get_appr(p);
+            } finally {
+                CR.ln_agm_threshold = saved_threshold;
+            }
+            assertTrue(name + " at " + p,
+                       agm.subtract(series).abs().compareTo(BigInteger.ONE) <= 0);
+        }
+    }
+
+    private static CR onePlusPowerOfTwo(int k) {
+        return CR.ONE.add(CR.ONE.shiftRight(k));
+    }
+
+    @Test
+    public void testLn2() {
+        // CR.ln2 caches, so compare it with the series it replaces.
+        for (int p : PRECISIONS) {
+            BigInteger ln2 = CR.ln2.get_appr(p);
+            BigInteger series = CR.series_ln2.get_appr(p);
+            assertTrue("ln2 at " + p,
+                       ln2.subtract(series).abs().compareTo(BigInteger.ONE) <= 0);
+        }
+    }
+
+    @Test
+    public void testLn() {
+        check("ln 10", new Function() {
+            public CR apply() { return CR.valueOf(10).ln(); }
+        });
+        check("ln 13/10", new Function() {
+            public CR apply() { return CR.valueOf(13).divide(CR.valueOf(10)).ln(); }
+        });
+        check("ln 1/1000", new Function() {
+            public CR apply() { return CR.valueOf(1000).inverse().ln(); }
+        });
+    }
+
+    @Test
+    public void testNearOne() {
+        for (final int k : new int[] { 3, 20, 100, 300, 2000 }) {
+            check("ln(1 + 2^-" + k + ")", new Function() {
+                public CR apply() { return onePlusPowerOfTwo(k).ln(); }
+            });
+            check("ln(1 - 2^-" + k + ")", new Function() {
+                public CR apply() {
+                    return CR.ONE.subtract(CR.ONE.shiftRight(k)).ln();
+                }
+            });
+        }
+    }
+
+    @Test
+    public void testSeriesChoice() {
+        // Tiny arguments converge quickly; others need the AGM.
+        assertTrue(prescaled_ln_CR.use_agm(-10000, -2));
+        assertTrue(!prescaled_ln_CR.use_agm(-10000, -2000));
+        assertTrue(!prescaled_ln_CR.use_agm(-10000, Integer.MIN_VALUE));
+        assertTrue(!prescaled_ln_CR.use_agm(-CR.ln_agm_threshold, -1));
+    }
+}
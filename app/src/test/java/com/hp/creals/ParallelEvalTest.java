@@ -0,0 +1,89 @@
+package com.hp.creals;
+
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+// Evaluates expressions sharing nodes that keep state between
+// evaluations (pi, ln, tan) from many threads at once,
+// with concurrent evaluation of operands forced on.  Checks that this
+// neither deadlocks nor changes the results.
+public class ParallelEvalTest {
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 6;
+    private static final int[] PRECISIONS = { -100, -400, -1000, -2500 };
+
+    // Each call builds new top-level nodes, so that only the shared
+    // nodes are evaluated concurrently.
+    private static CR expression(CR[] shared, int i) {
+        CR x = CR.valueOf(i + 2);
+        CR a = shared[0].multiply(x.ln()).add(shared[1].multiply(x.sqrt()));
+        CR b = shared[2].add(x).exp().multiply(shared[1].add(x.tan()));
+        return a.add(b).multiply(shared[0].add(shared[2].multiply(x)));
+    }
+
+    // The ln is computed by the AGM at our larger precisions, holding its
+    // lock while evaluating an operand that may be split among threads.
+    private static CR[] shared() {
+        CR three = CR.valueOf(3);
+        CR sum = three.exp().multiply(CR.valueOf(5).sqrt()).add(CR.valueOf(7).exp());
+        return new CR[] { CR.PI, sum.ln(),
+                          CR.ONE.tan().multiply(three.sqrt().ln()) };
+    }
+
+    @Test
+    public void testConcurrentSharedEvaluation() throws Exception {
+        final int saved_threshold = CR.parallel_eval_threshold;
+        final BigInteger[][] expected = new BigInteger[THREADS][PRECISIONS.length];
+        final CR[] reference = shared();
+        for (int i = 0; i < THREADS; ++i) {
+            for (int j = 0; j < PRECISIONS.length; ++j) {
+                expected[i][j] = expression(reference, i).get_appr(PRECISIONS[j]);
+            }
+        }
+        CR.parallel_eval_threshold = 1;
+        final ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (int round = 0; round < ROUNDS; ++round) {
+                final CR[] shared = shared();
+                final List<Future<BigInteger[]>> results =
+                        new ArrayList<Future<BigInteger[]>>();
+                for (int i = 0; i < THREADS; ++i) {
+                    final int index = i;
+                    results.add(threads.submit(new Callable<BigInteger[]>() {
+                        public BigInteger[] call() {
+                            BigInteger[] apprs = new BigInteger[PRECISIONS.length];
+                            CR e = expression(shared, index);
+                            for (int j = 0; j < PRECISIONS.length; ++j) {
+                                apprs[j] = e.get_appr(PRECISIONS[j]);
+                            }
+                            return apprs;
+                        }
+                    }));
+                }
+                for (int i = 0; i < THREADS; ++i) {
+                    // A deadlock shows up as a TimeoutException.
+                    BigInteger[] apprs = results.get(i).get(60, TimeUnit.SECONDS);
+                    for (int j = 0; j < PRECISIONS.length; ++j) {
+                        // Both are off by less than one unit.
+                        assertTrue("thread " + i + " at " + PRECISIONS[j],
+                                   apprs[j].subtract(expected[i][j]).abs()
+                                           .compareTo(BigInteger.ONE) <= 0);
+                    }
+                }
+            }
+        } finally {
+            threads.shutdownNow();
+            CR.parallel_eval_threshold = saved_threshold;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.hp.creals;
+
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+
+import org.junit.Test;
+
+// Compares CR.pow and CR.nthRoot with reference computations: exact
+// rational powers, and roots computed as exp(ln(x)/n).
+public class PowerTest {
+    private static final int[] PRECISIONS = { 20, 0, -10, -100, -1000, -3000 };
+
+    private static void check(String name, CR x, CR expected) {
+        for (int p : PRECISIONS) {
+            BigInteger appr = x.get_appr(p);
+            BigInteger reference = expected.get_appr(p);
+            assertTrue(name + " at " + p + ": " + appr + " vs " + reference,
+                       appr.subtract(reference).abs().compareTo(BigInteger.ONE) <= 0);
+        }
+    }
+
+    private static CR ratio(long num, long den) {
+        return CR.valueOf(num).divide(CR.valueOf(den));
+    }
+
+    @Test
+    public void testPow() {
+        long[][] bases = { { 3, 2 }, { -7, 3 }, { 1, 1000 }, { 10, 1 }, { -1, 1 }, { 999, 1000 } };
+        int[] exponents = { 2, 3, 7, 100, 1001 };
+        for (long[] b : bases) {
+            for (int n : exponents) {
+                BigInteger num = BigInteger.valueOf(b[0]).pow(n);
+                BigInteger den = BigInteger.valueOf(b[1]).pow(n);
+                String name = b[0] + "/" + b[1] + "^" + n;
+                CR exact = CR.valueOf(num).divide(CR.valueOf(den));
+                check(name, ratio(b[0], b[1]).pow(BigInteger.valueOf(n)), exact);
+                if (b[0] != -1 && n <= 100) {
+                    check(name + " inverse",
+                          ratio(b[0], b[1]).pow(BigInteger.valueOf(-n)),
+                          CR.valueOf(den).divide(CR.valueOf(num)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPowIrrational() {
+        CR x = CR.valueOf(2).sqrt();
+        check("sqrt(2)^50", x.pow(BigInteger.valueOf(50)), CR.valueOf(1L << 25));
+        check("pi^13", CR.PI.pow(BigInteger.valueOf(13)),
+              CR.PI.ln().multiply(CR.valueOf(13)).exp());
+        check("e^-20", CR.ONE.exp().pow(BigInteger.valueOf(-20)), CR.valueOf(-20).exp());
+    }
+
+    @Test
+    public void testNthRoot() {
+        long[][] args = { { 2, 1 }, { 1, 3 }, { 1000000, 7 }, { 1, 1000000000 } };
+        for (long[] a : args) {
+            CR x = ratio(a[0], a[1]);
+            for (int n : new int[] { 3, 4, 5, 7, 10 }) {
+                String name = a[0] + "/" + a[1] + " ^ 1/" + n;
+                check(name, x.nthRoot(n), x.ln().divide(CR.valueOf(n)).exp());
+                if ((n & 1) == 1) {
+                    check("-" + name, x.negate().nthRoot(n),
+                          x.ln().divide(CR.valueOf(n)).exp().negate());
+                }
+            }
+        }
+        check("27 ^ 1/3", CR.valueOf(27).nthRoot(3), CR.valueOf(3));
+        check("-32 ^ 1/5", CR.valueOf(-32).nthRoot(5), CR.valueOf(-2));
+        check("0 ^ 1/3", CR.ZERO.nthRoot(3), CR.ZERO);
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testEvenRootOfNegative() {
+        CR.valueOf(-2).nthRoot(4).get_appr(-10);
+    }
+}
@@ -0,0 +1,84 @@
+package com.hp.creals;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.junit.Test;
+
+// Compares scratch_int, which series evaluations use to update sums in
+// place, with the same operations on BigIntegers.
+public class ScratchIntTest {
+    private static BigInteger random(Random r, int max_bits) {
+        BigInteger n = new BigInteger(r.nextInt(max_bits + 1), r);
+        return r.nextBoolean() ? n.negate() : n;
+    }
+
+    @Test
+    public void testWords() {
+        Random r = new Random(5);
+        for (int i = 0; i < 200; ++i) {
+            BigInteger n = random(r, 300);
+            int[] words = scratch_int.words(n);
+            BigInteger back = BigInteger.ZERO;
+            for (int j = words.length - 1; j >= 0; --j) {
+                back = back.shiftLeft(32).or(BigInteger.valueOf(words[j] & 0xffffffffL));
+            }
+            assertEquals(n.abs(), back);
+            if (words.length > 0) {
+                assertEquals(true, words[words.length - 1] != 0);
+            }
+        }
+        assertArrayEquals(new int[0], scratch_int.words(BigInteger.ZERO));
+    }
+
+    @Test
+    public void testRandomOperations() {
+        Random r = new Random(11);
+        for (int trial = 0; trial < 50; ++trial) {
+            final int max_bits = 1 + r.nextInt(1000);
+            // Start small, so the magnitude has to grow.
+            scratch_int x = new scratch_int(1);
+            BigInteger expected = random(r, max_bits);
+            x.set(expected);
+            for (int step = 0; step < 200; ++step) {
+                BigInteger y = random(r, max_bits);
+                scratch_int sy = new scratch_int(scratch_int.capacity(max_bits));
+                sy.set(y);
+                switch (r.nextInt(6)) {
+                case 0:
+                    x.add(scratch_int.words(y), y.signum());
+                    expected = expected.add(y);
+                    break;
+                case 1:
+                    x.add(sy);
+                    expected = expected.add(y);
+                    break;
+                case 2:
+                    x.subtract(sy);
+                    expected = expected.subtract(y);
+                    break;
+                case 3:
+                    int d = 1 + r.nextInt(r.nextBoolean() ? 10 : Integer.MAX_VALUE);
+                    x.divide(d);
+                    expected = expected.divide(BigInteger.valueOf(d));
+                    break;
+                case 4:
+                    x.negate();
+                    expected = expected.negate();
+                    break;
+                default:
+                    // Cancel exactly, leaving zero.
+                    BigInteger current = x.to_big_integer();
+                    sy.set(current);
+                    x.subtract(sy);
+                    expected = BigInteger.ZERO;
+                }
+                assertEquals("trial " + trial + ", step " + step,
+                             expected, x.to_big_integer());
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.hp.creals;
+
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+
+import org.junit.Test;
+
+// Compares UnaryCRFunction.executeAll with the slower, but simpler,
+// execute(x).get_appr(p).  Both are off by less than one unit, so they
+// may differ by one.
+public class UnaryCRFunctionTest {
+    private static final int[] PRECISIONS =
+            { -300, -100, -30, -10, -2, 0, 1, 3, 14, 20, 50, 100, 300 };
+
+    private static CR[] args(String... values) {
+        CR[] result = new CR[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            String v = values[i];
+            int slash = v.indexOf('/');
+            result[i] = slash < 0 ? CR.valueOf(new BigInteger(v))
+                    : CR.valueOf(new BigInteger(v.substring(0, slash)))
+                        .divide(CR.valueOf(new BigInteger(v.substring(slash + 1))));
+        }
+        return result;
+    }
+
+    private static void check(String name, UnaryCRFunction f, CR[] xs) {
+        for (int p : PRECISIONS) {
+            BigInteger[] all = f.executeAll(xs, p);
+            for (int i = 0; i < xs.length; ++i) {
+                BigInteger expected = f.execute(xs[i]).get_appr(p);
+                assertTrue(name + "(" + xs[i].toString(10) + ") at " + p
+                           + ": " + all[i] + " vs " + expected,
+                           all[i].subtract(expected).abs()
+                                 .compareTo(BigInteger.ONE) <= 0);
+            }
+        }
+    }
+
+    @Test
+    public void testSin() {
+        check("sin", UnaryCRFunction.sinFunction,
+              args("0", "1/3", "-1", "2", "7", "-22", "355", "100000", "1/1000000"));
+    }
+
+    @Test
+    public void testCos() {
+        check("cos", UnaryCRFunction.cosFunction,
+              args("0", "1/3", "-1", "2", "7", "-22", "355", "100000", "1/1000000"));
+    }
+
+    @Test
+    public void testExp() {
+        check("exp", UnaryCRFunction.expFunction,
+              args("0", "1/3", "-1", "2", "30", "-30", "100", "200", "500",
+                   "-500", "1/1000000"));
+    }
+
+    @Test
+    public void testLn() {
+        check("ln", UnaryCRFunction.lnFunction,
+              args("1", "1/3", "2", "10", "1000000", "1/1000000",
+                   "1000001/1000000", "12345678901234567890"));
+    }
+
+    @Test
+    public void testManyArguments() {
+        // Enough arguments to be split among several threads.
+        CR[] xs = new CR[200];
+        for (int i = 0; i < xs.length; ++i) {
+            xs[i] = CR.valueOf(i - 100).divide(CR.valueOf(7));
+        }
+        check("exp", UnaryCRFunction.expFunction, xs);
+        check("sin", UnaryCRFunction.sinFunction, xs);
+    }
+
+    @Test
+    public void testDefault() {
+        check("sqrt", UnaryCRFunction.sqrtFunction,
+              args("0", "2", "1/3", "1000000"));
+    }
+}